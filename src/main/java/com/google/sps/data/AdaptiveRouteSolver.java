@@ -0,0 +1,95 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * RouteSolver that finds the optimal route with an ExactRouteSolver for journeys with at most
+ * maxExactWaypoints waypoints and uses a HeuristicRouteSolver for larger journeys.
+ */
+public class AdaptiveRouteSolver implements RouteSolver {
+  private ExactRouteSolver exactSolver;
+  private HeuristicRouteSolver heuristicSolver;
+  private int maxExactWaypoints;
+
+  /**
+   * Creates a solver whose ExactRouteSolver computes large tables using solverPool and is used for
+   * journeys with at most ExactRouteSolver.MAX_WAYPOINTS waypoints.
+   */
+  public AdaptiveRouteSolver(ForkJoinPool solverPool) {
+    this(solverPool, ExactRouteSolver.MAX_WAYPOINTS);
+  }
+
+  /**
+   * Creates a solver whose ExactRouteSolver computes large tables using solverPool and is used for
+   * journeys with at most maxExactWaypoints waypoints. If maxExactWaypoints is greater than
+   * ExactRouteSolver.MAX_WAYPOINTS, the tables of the ExactRouteSolver are stored off the heap.
+   */
+  public AdaptiveRouteSolver(ForkJoinPool solverPool, int maxExactWaypoints) {
+    if (maxExactWaypoints > ExactRouteSolver.MAX_OFF_HEAP_WAYPOINTS) {
+      throw new IllegalArgumentException("Journeys with more than " + ExactRouteSolver.MAX_OFF_HEAP_WAYPOINTS
+          + " waypoints can't be solved exactly!");
+    }
+    exactSolver = new ExactRouteSolver(solverPool, maxExactWaypoints > ExactRouteSolver.MAX_WAYPOINTS);
+    heuristicSolver = new HeuristicRouteSolver();
+    this.maxExactWaypoints = maxExactWaypoints;
+  }
+
+  private AdaptiveRouteSolver(ExactRouteSolver exactSolver, HeuristicRouteSolver heuristicSolver, int maxExactWaypoints) {
+    this.exactSolver = exactSolver;
+    this.heuristicSolver = heuristicSolver;
+    this.maxExactWaypoints = maxExactWaypoints;
+  }
+
+  @Override
+  public RouteSolution solve(TravelTimeMatrix travelTimes, List<Journey.Pair> restrictions) {
+    if (travelTimes.getNumberOfWaypoints() <= maxExactWaypoints) {
+      return exactSolver.solve(travelTimes, restrictions);
+    }
+    return heuristicSolver.solve(travelTimes, restrictions);
+  }
+
+  @Override
+  public boolean hasRouteWithin(TravelTimeMatrix travelTimes, List<Journey.Pair> restrictions, int maxTime) {
+    if (travelTimes.getNumberOfWaypoints() <= maxExactWaypoints) {
+      return exactSolver.hasRouteWithin(travelTimes, restrictions, maxTime);
+    }
+    return heuristicSolver.hasRouteWithin(travelTimes, restrictions, maxTime);
+  }
+
+  @Override
+  public void onWaypointRemoved(int waypointIndex) {
+    exactSolver.onWaypointRemoved(waypointIndex);
+    heuristicSolver.onWaypointRemoved(waypointIndex);
+  }
+
+  @Override
+  public void onRestrictionChanged(int first, int second) {
+    exactSolver.onRestrictionChanged(first, second);
+    heuristicSolver.onRestrictionChanged(first, second);
+  }
+
+  @Override
+  public AdaptiveRouteSolver copy() {
+    return new AdaptiveRouteSolver(exactSolver.copy(), heuristicSolver.copy(), maxExactWaypoints);
+  }
+
+  @Override
+  public void release() {
+    exactSolver.release();
+  }
+}
@@ -0,0 +1,252 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.maps.errors.ApiException;
+import java.io.IOException;
+import java.lang.InterruptedException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * PathFinder that remembers the travel times found by another PathFinder, so that the same pair of
+ * points is not requested again from Maps APIs by other journeys or requests. Points are compared
+ * with the same precision as in Point.equals(). The cache holds at most capacity travel times,
+ * evicting the least recently used one when it is full, and a travel time expires timeToLiveMillis
+ * after it was requested, since travel times change over time.
+ */
+public class CachingPathFinder implements PathFinder {
+  // Coordinates are compared with the same precision as in Point.equals().
+  private static final double COORDINATE_SCALE = 100000.0;
+  private static final int DEFAULT_CAPACITY = 100000;
+  private static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.DAYS.toMillis(1);
+  // Travel times stored in datastore are requested again after a week.
+  private static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+  private static CachingPathFinder googleMapsInstance = null;
+  private final PathFinder pathFinder;
+  private final int capacity;
+  private final long timeToLiveMillis;
+  // Returns the current time in milliseconds.
+  private final LongSupplier clock;
+  private final LinkedHashMap<Key, Entry> travelTimes;
+  private int numberOfHits;
+  private int numberOfMisses;
+  private int numberOfEvictions;
+  private int numberOfExpirations;
+
+  /**
+   * Returns the cache of travel times found by Google Maps that is shared by all requests. Travel
+   * times that are not in memory are looked up in datastore before Google Maps is asked, thus a new
+   * instance doesn't start with an empty cache.
+   */
+  public static synchronized CachingPathFinder getGoogleMapsInstance() {
+    if (googleMapsInstance == null) {
+      googleMapsInstance = new CachingPathFinder(new DatastorePathFinder(new GoogleMapsPathFinder(), DEFAULT_MAX_AGE_MILLIS),
+          DEFAULT_CAPACITY, DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+    return googleMapsInstance;
+  }
+
+  public CachingPathFinder(PathFinder pathFinder, int capacity, long timeToLiveMillis) {
+    this(pathFinder, capacity, timeToLiveMillis, System::currentTimeMillis);
+  }
+
+  CachingPathFinder(PathFinder pathFinder, int capacity, long timeToLiveMillis, LongSupplier clock) {
+    this.pathFinder = pathFinder;
+    this.capacity = capacity;
+    this.timeToLiveMillis = timeToLiveMillis;
+    this.clock = clock;
+    // Iterating in access order puts the least recently used travel time first.
+    this.travelTimes = new LinkedHashMap<Key, Entry>(16, 0.75f, /** accessOrder = */ true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+        if (size() > CachingPathFinder.this.capacity) {
+          ++numberOfEvictions;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Returns the cached travel time from a to b, or requests it from the wrapped PathFinder if it is
+   * not cached or has expired. The lock is not held during the request, thus slow requests don't
+   * block the lookups of other threads.
+   */
+  @Override
+  public int getTimeInSecondsBetweenPoints(Point a, Point b) throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    Key key = new Key(quantize(a), quantize(b));
+    synchronized (this) {
+      Integer timeInSeconds = lookUp(key);
+      if (timeInSeconds != null) {
+        return timeInSeconds;
+      }
+    }
+    int timeInSeconds = pathFinder.getTimeInSecondsBetweenPoints(a, b);
+    synchronized (this) {
+      travelTimes.put(key, new Entry(timeInSeconds, clock.getAsLong() + timeToLiveMillis));
+    }
+    return timeInSeconds;
+  }
+
+  /**
+   * Returns a completed future if the travel time from a to b is cached, otherwise the future of the
+   * wrapped PathFinder, whose result is cached when it completes.
+   */
+  @Override
+  public CompletableFuture<Integer> getTimeInSecondsBetweenPointsAsync(Point a, Point b) {
+    Key key = new Key(quantize(a), quantize(b));
+    synchronized (this) {
+      Integer timeInSeconds = lookUp(key);
+      if (timeInSeconds != null) {
+        return CompletableFuture.completedFuture(timeInSeconds);
+      }
+    }
+    return pathFinder.getTimeInSecondsBetweenPointsAsync(a, b).thenApply(timeInSeconds -> {
+      synchronized (this) {
+        travelTimes.put(key, new Entry(timeInSeconds, clock.getAsLong() + timeToLiveMillis));
+      }
+      return timeInSeconds;
+    });
+  }
+
+  /**
+   * Returns the cached travel times between origins and destinations. The travel times that are
+   * not cached are requested from the wrapped PathFinder with a single call of getTimeMatrix.
+   */
+  @Override
+  public int[][] getTimeMatrix(List<Point> origins, List<Point> destinations) throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    int[][] times = new int[origins.size()][destinations.size()];
+    boolean[][] isKnown = new boolean[origins.size()][destinations.size()];
+    Key[][] keys = new Key[origins.size()][destinations.size()];
+    synchronized (this) {
+      for (int origin = 0; origin < origins.size(); ++origin) {
+        for (int destination = 0; destination < destinations.size(); ++destination) {
+          keys[origin][destination] = new Key(quantize(origins.get(origin)), quantize(destinations.get(destination)));
+          Integer timeInSeconds = lookUp(keys[origin][destination]);
+          if (timeInSeconds != null) {
+            times[origin][destination] = timeInSeconds;
+            isKnown[origin][destination] = true;
+          }
+        }
+      }
+    }
+    if (PathFinder.fillUnknownTimes(pathFinder, origins, destinations, times, isKnown) == 0) {
+      return times;
+    }
+    synchronized (this) {
+      long expirationTime = clock.getAsLong() + timeToLiveMillis;
+      for (int origin = 0; origin < origins.size(); ++origin) {
+        for (int destination = 0; destination < destinations.size(); ++destination) {
+          if (!isKnown[origin][destination]) {
+            travelTimes.put(keys[origin][destination], new Entry(times[origin][destination], expirationTime));
+          }
+        }
+      }
+    }
+    return times;
+  }
+
+  /**
+   * Returns the travel time cached for key, or null if it is not cached or has expired. The caller
+   * must hold the lock of this.
+   */
+  private Integer lookUp(Key key) {
+    Entry entry = travelTimes.get(key);
+    if (entry != null && entry.expirationTime > clock.getAsLong()) {
+      ++numberOfHits;
+      return entry.timeInSeconds;
+    }
+    if (entry != null) {
+      travelTimes.remove(key);
+      ++numberOfExpirations;
+    }
+    ++numberOfMisses;
+    return null;
+  }
+
+  public synchronized int getNumberOfHits() {
+    return numberOfHits;
+  }
+
+  public synchronized int getNumberOfMisses() {
+    return numberOfMisses;
+  }
+
+  public synchronized int getNumberOfEvictions() {
+    return numberOfEvictions;
+  }
+
+  public synchronized int getNumberOfExpirations() {
+    return numberOfExpirations;
+  }
+
+  public synchronized int size() {
+    return travelTimes.size();
+  }
+
+  /**
+   * Returns the coordinates of point rounded as in Point.equals() and packed in a long.
+   */
+  private static long quantize(Point point) {
+    int latitude = (int) (COORDINATE_SCALE * point.latitude);
+    int longitude = (int) (COORDINATE_SCALE * point.longitude);
+    return ((long) latitude << 32) | (longitude & 0xffffffffL);
+  }
+
+  /**
+   * The quantized origin and destination of a travel time. Travel times are not symmetric, thus the
+   * order of the points matters.
+   */
+  private static class Key {
+    private final long origin;
+    private final long destination;
+
+    private Key(long origin, long destination) {
+      this.origin = origin;
+      this.destination = destination;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (!(object instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) object;
+      return origin == key.origin && destination == key.destination;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(origin) * 31 + Long.hashCode(destination);
+    }
+  }
+
+  private static class Entry {
+    private final int timeInSeconds;
+    // The time in milliseconds after which the travel time is requested again.
+    private final long expirationTime;
+
+    private Entry(int timeInSeconds, long expirationTime) {
+      this.timeInSeconds = timeInSeconds;
+      this.expirationTime = expirationTime;
+    }
+  }
+}
@@ -0,0 +1,251 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.apphosting.api.ApiProxy;
+import com.google.maps.errors.ApiException;
+import java.io.IOException;
+import java.lang.InterruptedException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * PathFinder that stores the travel times found by another PathFinder in datastore, so that they
+ * are not requested again from Maps APIs after an instance restarts. Each pair of points is stored
+ * once, under a key name made of their coordinates rounded as in Point.equals(). Travel times older
+ * than maxAgeMillis are requested again, to follow changes in traffic.
+ */
+public class DatastorePathFinder implements PathFinder {
+  private static final Logger logger = Logger.getLogger(DatastorePathFinder.class.getName());
+  private static final String TRAVEL_TIME_KIND = "TravelTime";
+  // Coordinates are compared with the same precision as in Point.equals().
+  private static final double COORDINATE_SCALE = 100000.0;
+  // The limits of a batch get and of a batch put in datastore.
+  private static final int MAX_KEYS_PER_GET = 1000;
+  private static final int MAX_ENTITIES_PER_PUT = 500;
+  private final PathFinder pathFinder;
+  private final long maxAgeMillis;
+  // Returns the current time in milliseconds.
+  private final LongSupplier clock;
+  private int numberOfHits;
+  private int numberOfMisses;
+
+  /**
+   * The properties of travel times in datastore.
+   */
+  public enum Property {
+    TIME_IN_SECONDS("timeInSeconds"),
+    UPDATE_TIME("updateTime");
+
+    public final String label;
+
+    private Property(String label) {
+      this.label = label;
+    }
+  }
+
+  public DatastorePathFinder(PathFinder pathFinder, long maxAgeMillis) {
+    this(pathFinder, maxAgeMillis, System::currentTimeMillis);
+  }
+
+  DatastorePathFinder(PathFinder pathFinder, long maxAgeMillis, LongSupplier clock) {
+    this.pathFinder = pathFinder;
+    this.maxAgeMillis = maxAgeMillis;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns the travel time from a to b stored in datastore, or requests it from the wrapped
+   * PathFinder and stores it if there is none or it is older than maxAgeMillis.
+   */
+  @Override
+  public int getTimeInSecondsBetweenPoints(Point a, Point b) throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key key = KeyFactory.createKey(TRAVEL_TIME_KIND, createKeyName(a, b));
+    Integer storedTime = getStoredTravelTime(datastore, key);
+    if (storedTime != null) {
+      incrementNumberOfHits();
+      return storedTime;
+    }
+    incrementNumberOfMisses();
+    int timeInSeconds = pathFinder.getTimeInSecondsBetweenPoints(a, b);
+    storeTravelTime(datastore, key, timeInSeconds);
+    return timeInSeconds;
+  }
+
+  /**
+   * Returns a completed future if the travel time from a to b is stored and recent enough,
+   * otherwise the future of the wrapped PathFinder, whose result is stored when it completes. The
+   * future may complete on a thread of the Maps client, which has no App Engine environment, thus
+   * the environment of the calling request is used to store the result. Failing to store it doesn't
+   * fail the lookup, the travel time is then requested again next time.
+   */
+  @Override
+  public CompletableFuture<Integer> getTimeInSecondsBetweenPointsAsync(Point a, Point b) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key key = KeyFactory.createKey(TRAVEL_TIME_KIND, createKeyName(a, b));
+    Integer storedTime = getStoredTravelTime(datastore, key);
+    if (storedTime != null) {
+      incrementNumberOfHits();
+      return CompletableFuture.completedFuture(storedTime);
+    }
+    incrementNumberOfMisses();
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    return pathFinder.getTimeInSecondsBetweenPointsAsync(a, b).thenApply(timeInSeconds -> {
+      boolean isOtherThread = ApiProxy.getCurrentEnvironment() == null;
+      if (isOtherThread) {
+        ApiProxy.setEnvironmentForCurrentThread(environment);
+      }
+      try {
+        storeTravelTime(datastore, key, timeInSeconds);
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Unable to store the travel time " + key, e);
+      } finally {
+        if (isOtherThread) {
+          ApiProxy.clearEnvironmentForCurrentThread();
+        }
+      }
+      return timeInSeconds;
+    });
+  }
+
+  /**
+   * Returns the travel time stored under key, or null if there is none or it is older than
+   * maxAgeMillis.
+   */
+  private Integer getStoredTravelTime(DatastoreService datastore, Key key) {
+    try {
+      Entity travelTime = datastore.get(key);
+      Date updateTime = (Date) travelTime.getProperty(Property.UPDATE_TIME.label);
+      if (clock.getAsLong() - updateTime.getTime() < maxAgeMillis) {
+        return ((Number) travelTime.getProperty(Property.TIME_IN_SECONDS.label)).intValue();
+      }
+    } catch (EntityNotFoundException e) {
+      // The travel time was never requested.
+    }
+    return null;
+  }
+
+  private void storeTravelTime(DatastoreService datastore, Key key, int timeInSeconds) {
+    Entity travelTime = new Entity(key);
+    travelTime.setProperty(Property.TIME_IN_SECONDS.label, timeInSeconds);
+    travelTime.setProperty(Property.UPDATE_TIME.label, new Date(clock.getAsLong()));
+    datastore.put(travelTime);
+  }
+
+  /**
+   * Returns the travel times between origins and destinations, reading the stored ones with batch
+   * gets. The travel times that are missing or too old are requested from the wrapped PathFinder
+   * with PathFinder.fillUnknownTimes and stored with batch puts.
+   */
+  @Override
+  public int[][] getTimeMatrix(List<Point> origins, List<Point> destinations) throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key[][] keys = new Key[origins.size()][destinations.size()];
+    // The same pair of points may appear more than once, but datastore gets and puts it once.
+    LinkedHashSet<Key> allKeys = new LinkedHashSet<>();
+    for (int origin = 0; origin < origins.size(); ++origin) {
+      for (int destination = 0; destination < destinations.size(); ++destination) {
+        keys[origin][destination] = KeyFactory.createKey(TRAVEL_TIME_KIND, createKeyName(origins.get(origin), destinations.get(destination)));
+        allKeys.add(keys[origin][destination]);
+      }
+    }
+    Map<Key, Entity> storedTravelTimes = new HashMap<>();
+    List<Key> keyList = new ArrayList<>(allKeys);
+    for (int first = 0; first < keyList.size(); first += MAX_KEYS_PER_GET) {
+      storedTravelTimes.putAll(datastore.get(keyList.subList(first, Math.min(first + MAX_KEYS_PER_GET, keyList.size()))));
+    }
+    int[][] times = new int[origins.size()][destinations.size()];
+    boolean[][] isKnown = new boolean[origins.size()][destinations.size()];
+    for (int origin = 0; origin < origins.size(); ++origin) {
+      for (int destination = 0; destination < destinations.size(); ++destination) {
+        Entity travelTime = storedTravelTimes.get(keys[origin][destination]);
+        if (travelTime != null && clock.getAsLong() - ((Date) travelTime.getProperty(Property.UPDATE_TIME.label)).getTime() < maxAgeMillis) {
+          times[origin][destination] = ((Number) travelTime.getProperty(Property.TIME_IN_SECONDS.label)).intValue();
+          isKnown[origin][destination] = true;
+          incrementNumberOfHits();
+        } else {
+          incrementNumberOfMisses();
+        }
+      }
+    }
+    if (PathFinder.fillUnknownTimes(pathFinder, origins, destinations, times, isKnown) == 0) {
+      return times;
+    }
+    LinkedHashMap<Key, Entity> newTravelTimes = new LinkedHashMap<>();
+    Date updateTime = new Date(clock.getAsLong());
+    for (int origin = 0; origin < origins.size(); ++origin) {
+      for (int destination = 0; destination < destinations.size(); ++destination) {
+        if (!isKnown[origin][destination]) {
+          Entity travelTime = new Entity(keys[origin][destination]);
+          travelTime.setProperty(Property.TIME_IN_SECONDS.label, times[origin][destination]);
+          travelTime.setProperty(Property.UPDATE_TIME.label, updateTime);
+          newTravelTimes.put(keys[origin][destination], travelTime);
+        }
+      }
+    }
+    List<Entity> entityList = new ArrayList<>(newTravelTimes.values());
+    for (int first = 0; first < entityList.size(); first += MAX_ENTITIES_PER_PUT) {
+      datastore.put(entityList.subList(first, Math.min(first + MAX_ENTITIES_PER_PUT, entityList.size())));
+    }
+    return times;
+  }
+
+  public synchronized int getNumberOfHits() {
+    return numberOfHits;
+  }
+
+  public synchronized int getNumberOfMisses() {
+    return numberOfMisses;
+  }
+
+  private synchronized void incrementNumberOfHits() {
+    ++numberOfHits;
+  }
+
+  private synchronized void incrementNumberOfMisses() {
+    ++numberOfMisses;
+  }
+
+  /**
+   * Returns the key name of the travel time from a to b, e.g. "5150735,-12776:5150322,-11949" for
+   * (51.50735, -0.12776) to (51.50322, -0.11949).
+   */
+  private static String createKeyName(Point a, Point b) {
+    return quantize(a) + ":" + quantize(b);
+  }
+
+  /**
+   * Returns the coordinates of point rounded as in Point.equals().
+   */
+  private static String quantize(Point point) {
+    return (int) (COORDINATE_SCALE * point.latitude) + "," + (int) (COORDINATE_SCALE * point.longitude);
+  }
+}
@@ -19,6 +19,7 @@ import com.google.maps.model.LatLng;
 
 import java.io.IOException;
 import java.util.Date;
+import java.time.Duration;
 import java.time.LocalTime;
 
 /**
@@ -33,7 +34,8 @@ public class DeliverySlot {
     END_TIME("endTime"),
     START_LAT("startLat"),
     START_LNG("startLng"),
-    USER_ID("uid");
+    USER_ID("uid"),
+    STATUS("status");
 
     public final String label;
 
@@ -42,6 +44,13 @@ public class DeliverySlot {
     }
   }
 
+  /**
+   * The statuses of a delivery slot: it is pending until the dispatcher assigns it a journey.
+   */
+  public enum Status {
+    PENDING, DISPATCHED;
+  }
+
   // The date and time that the courier starts their delivery run.
   private Date startTime;
   // The date and time that the courier ends their delivery run.
@@ -52,6 +61,8 @@ public class DeliverySlot {
   private String userId;
   // The unique id of this delivery slot.
   private String slotId;
+  // Whether the dispatcher has already assigned a journey to this delivery slot.
+  private Status status = Status.PENDING;
 
   /**
    * Creates a delivery slot given a date, start and end times in miliseconds and the user id.
@@ -105,6 +116,10 @@ public class DeliverySlot {
     return endTime;
   }
 
+  public long getDurationInSeconds() {
+    return Duration.between(startTime.toInstant(), endTime.toInstant()).getSeconds();
+  }
+
   public String getUserId() {
     return userId;
   }
@@ -128,4 +143,12 @@ public class DeliverySlot {
   public void setSlotId(String slotId) {
     this.slotId = slotId;
   }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  public void setStatus(Status status) {
+    this.status = status;
+  }
 }
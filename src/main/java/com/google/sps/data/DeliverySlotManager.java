@@ -19,8 +19,11 @@ import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.maps.model.LatLng;
@@ -33,6 +36,8 @@ import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.List;
 
@@ -40,6 +45,9 @@ import java.util.List;
  * Class that manages delivery slots.
  */
 public class DeliverySlotManager {
+  // A dispatch that conflicts with another transaction is tried again at most this many times.
+  private static final int MAX_TRANSACTION_ATTEMPTS = 3;
+
   /**
    * Creates a delivery slot request and adds it to datastore.
    */
@@ -58,6 +66,7 @@ public class DeliverySlotManager {
     deliveryRequest.setProperty(DeliverySlot.Property.USER_ID.label, deliverySlot.getUserId());
     deliveryRequest.setProperty(DeliverySlot.Property.START_LAT.label, deliverySlot.getStartLatitude());
     deliveryRequest.setProperty(DeliverySlot.Property.START_LNG.label, deliverySlot.getStartLongitude());
+    deliveryRequest.setProperty(DeliverySlot.Property.STATUS.label, DeliverySlot.Status.PENDING.toString());
 
     return deliveryRequest;
   }
@@ -84,16 +93,111 @@ public class DeliverySlotManager {
     List<Entity> results = datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
     
     for (Entity deliverySlotEntity : results) {
-      DeliverySlot deliverySlot = new DeliverySlot((Date)deliverySlotEntity.getProperty(DeliverySlot.Property.START_TIME.label),
-      (Date)deliverySlotEntity.getProperty(DeliverySlot.Property.END_TIME.label),
-      (String)deliverySlotEntity.getProperty(DeliverySlot.Property.USER_ID.label));
-
-      deliverySlot.setStartPoint((double)deliverySlotEntity.getProperty(DeliverySlot.Property.START_LAT.label),
-        (double)deliverySlotEntity.getProperty(DeliverySlot.Property.START_LNG.label));
-      deliverySlot.setSlotId(KeyFactory.keyToString(deliverySlotEntity.getKey()));
-      deliverySlots.add(deliverySlot);
+      deliverySlots.add(createDeliverySlotFromEntity(deliverySlotEntity));
     }
     
     return deliverySlots;
   }
+
+  /**
+   * Returns the pending deliverySlotRequests that overlap the [windowStart, windowEnd] interval and
+   * haven't started yet.
+   */
+  public List<DeliverySlot> getPendingDeliverySlotRequests(Date windowStart, Date windowEnd) throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    List<DeliverySlot> deliverySlots = new ArrayList<DeliverySlot>();
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    // Datastore allows inequality filters on a single property, thus the end time is checked here.
+    Query query = new Query("deliverySlotRequest")
+        .setFilter(Query.CompositeFilterOperator.and(
+            new Query.FilterPredicate(DeliverySlot.Property.STATUS.label, Query.FilterOperator.EQUAL, DeliverySlot.Status.PENDING.toString()),
+            new Query.FilterPredicate(DeliverySlot.Property.START_TIME.label, Query.FilterOperator.LESS_THAN_OR_EQUAL, windowEnd)));
+    List<Entity> results = datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
+
+    for (Entity deliverySlotEntity : results) {
+      if (((Date) deliverySlotEntity.getProperty(DeliverySlot.Property.END_TIME.label)).before(windowStart)) {
+        continue;
+      }
+      try {
+        deliverySlots.add(createDeliverySlotFromEntity(deliverySlotEntity));
+      } catch (BadRequestException e) {
+        // The slot has already started, thus the courier can't be given a journey anymore.
+      }
+    }
+    return deliverySlots;
+  }
+
+  /**
+   * Returns the status of the deliverySlotRequest with the given slotId. Throws
+   * EntityNotFoundException if there is no such request for the user with id userId.
+   */
+  public DeliverySlot.Status getDeliverySlotStatus(String slotId, String userId) throws EntityNotFoundException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key key = KeyFactory.stringToKey(slotId);
+    Entity deliverySlotRequest = datastore.get(key);
+    if (!userId.equals(deliverySlotRequest.getProperty(DeliverySlot.Property.USER_ID.label))) {
+      // Users can only see the status of their own delivery slots.
+      throw new EntityNotFoundException(key);
+    }
+    return getStatusFromEntity(deliverySlotRequest);
+  }
+
+  /**
+   * Stores journeyEntity and marks the deliverySlotRequest with the given slotId as dispatched in
+   * one cross-group transaction, if the request is still pending. Returns false, storing nothing, if
+   * the request was dispatched meanwhile, e.g. by an overlapping run of the dispatcher.
+   */
+  public boolean markDeliverySlotAsDispatched(String slotId, Entity journeyEntity) throws EntityNotFoundException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key key = KeyFactory.stringToKey(slotId);
+    ConcurrentModificationException conflict = null;
+    for (int attempt = 0; attempt < MAX_TRANSACTION_ATTEMPTS; ++attempt) {
+      Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        Entity deliverySlotRequest = datastore.get(transaction, key);
+        if (getStatusFromEntity(deliverySlotRequest) != DeliverySlot.Status.PENDING) {
+          return false;
+        }
+        deliverySlotRequest.setProperty(DeliverySlot.Property.STATUS.label, DeliverySlot.Status.DISPATCHED.toString());
+        datastore.put(transaction, Arrays.asList(deliverySlotRequest, journeyEntity));
+        transaction.commit();
+        return true;
+      } catch (ConcurrentModificationException e) {
+        // Another transaction changed the request after it was read, thus its status is read again.
+        conflict = e;
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+    throw conflict;
+  }
+
+  /**
+   * Creates a DeliverySlot with the properties of deliverySlotEntity.
+   */
+  private DeliverySlot createDeliverySlotFromEntity(Entity deliverySlotEntity) throws BadRequestException {
+    DeliverySlot deliverySlot = new DeliverySlot((Date)deliverySlotEntity.getProperty(DeliverySlot.Property.START_TIME.label),
+    (Date)deliverySlotEntity.getProperty(DeliverySlot.Property.END_TIME.label),
+    (String)deliverySlotEntity.getProperty(DeliverySlot.Property.USER_ID.label));
+
+    deliverySlot.setStartPoint((double)deliverySlotEntity.getProperty(DeliverySlot.Property.START_LAT.label),
+      (double)deliverySlotEntity.getProperty(DeliverySlot.Property.START_LNG.label));
+    deliverySlot.setSlotId(KeyFactory.keyToString(deliverySlotEntity.getKey()));
+    deliverySlot.setStatus(getStatusFromEntity(deliverySlotEntity));
+    return deliverySlot;
+  }
+
+  /**
+   * Returns the status stored in deliverySlotEntity.
+   */
+  private DeliverySlot.Status getStatusFromEntity(Entity deliverySlotEntity) {
+    String status = (String) deliverySlotEntity.getProperty(DeliverySlot.Property.STATUS.label);
+    if (status == null) {
+      // Requests stored before the dispatcher existed got their journey when they were created.
+      return DeliverySlot.Status.DISPATCHED;
+    }
+    return DeliverySlot.Status.valueOf(status);
+  }
 }
@@ -24,63 +24,497 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /** 
  * Class that assigns orders and creates delivery journeys for delivery slots.
  */
 public class DeliverySystem {
-  private final Integer MAX_WAYPOINTS = 25;
+  // The maximum number of waypoints of the journeys built by the OrderSelectors.
+  private static final int MAX_WAYPOINTS = 200;
+  private static final int ROUTE_CACHE_CAPACITY = 1000;
+  // The number of orders closest to the start point of each courier that are considered for them.
+  private static final int MAX_CANDIDATE_ORDERS_PER_COURIER = 50;
+  // If inserting an order in the known route of a journey exceeds the slot by more than this
+  // fraction of it, the order is rejected without solving the journey, since reordering the other
+  // waypoints rarely saves that much time.
+  private static final double BORDERLINE_TIME_FRACTION = 0.1;
+  // The number of candidate orders that are checked at the same time by default.
+  private static final int SPECULATION_WIDTH = 4;
+  // Candidate orders of all delivery requests are checked on this bounded pool. Its threads don't
+  // keep the application alive. They have no App Engine environment, thus they only run the
+  // solvers; the travel times are requested on the thread of the request.
+  private static final ExecutorService sharedSpeculationExecutor = Executors.newFixedThreadPool(SPECULATION_WIDTH, runnable -> {
+    Thread thread = new Thread(runnable);
+    thread.setDaemon(true);
+    return thread;
+  });
+  // Routes solved for any delivery request, shared because couriers in the same area often get
+  // journeys with the same waypoints.
+  private static final RouteCache sharedRouteCache = new RouteCache(ROUTE_CACHE_CAPACITY);
   private PathFinder pathFinder;
+  // The pool used by journeys to compute large exact solver tables in parallel.
+  private ForkJoinPool solverPool;
+  // The number of orders rejected because no courier can deliver them in their slot even on their
+  // own.
+  private int numberOfScreenedOutOrders;
+  private RouteCache routeCache;
+  // The maximum number of waypoints of journeys that are solved exactly.
+  private int maxExactWaypoints;
+  private int maxCandidateOrdersPerCourier;
+  // The executor that checks candidate orders in parallel, or null if they are checked one by one.
+  private ExecutorService speculationExecutor;
+  private int speculationWidth;
 
   public DeliverySystem(PathFinder pathFinder) {
     this.pathFinder = pathFinder;
+    this.solverPool = ForkJoinPool.commonPool();
+    this.numberOfScreenedOutOrders = 0;
+    this.routeCache = sharedRouteCache;
+    // Journeys are solved exactly up to the largest size the off-heap solver tables allow.
+    this.maxExactWaypoints = ExactRouteSolver.MAX_OFF_HEAP_WAYPOINTS;
+    this.maxCandidateOrdersPerCourier = MAX_CANDIDATE_ORDERS_PER_COURIER;
+    this.speculationExecutor = sharedSpeculationExecutor;
+    this.speculationWidth = SPECULATION_WIDTH;
+  }
+
+  /**
+   * Sets the executor on which the next speculationWidth candidate orders are checked against a
+   * copy of the journey each, after which the best one that fits is added. If speculationExecutor
+   * is null, the candidates are checked one by one on the calling thread.
+   */
+  public void setSpeculationExecutor(ExecutorService speculationExecutor, int speculationWidth) {
+    this.speculationExecutor = speculationExecutor;
+    this.speculationWidth = speculationWidth;
+  }
+
+  /**
+   * Sets the number of available orders considered for each courier, which are the ones with the
+   * shortest straight-line detour from the start point of the courier.
+   */
+  public void setMaxCandidateOrdersPerCourier(int maxCandidateOrdersPerCourier) {
+    this.maxCandidateOrdersPerCourier = maxCandidateOrdersPerCourier;
+  }
+
+  /**
+   * Sets the maximum number of waypoints of journeys that are solved exactly, which can be at most
+   * ExactRouteSolver.MAX_OFF_HEAP_WAYPOINTS. Above ExactRouteSolver.MAX_WAYPOINTS the solver tables
+   * are stored in memory-mapped files instead of the heap.
+   */
+  public void setMaxExactWaypoints(int maxExactWaypoints) {
+    this.maxExactWaypoints = maxExactWaypoints;
+  }
+
+  /**
+   * Sets the cache of routes used by the journeys created by this DeliverySystem. If routeCache is
+   * null, the journeys are always solved.
+   */
+  public void setRouteCache(RouteCache routeCache) {
+    this.routeCache = routeCache;
+  }
+
+  public RouteCache getRouteCache() {
+    return routeCache;
+  }
+
+  /**
+   * Returns the number of orders that were rejected before choosing the orders of journeys,
+   * because the route that delivers only them is already longer than the delivery slot.
+   */
+  public int getNumberOfScreenedOutOrders() {
+    return numberOfScreenedOutOrders;
+  }
+
+  /**
+   * Sets the pool used by journeys to compute large exact solver tables in parallel. If solverPool
+   * is null, journeys are computed on the calling thread.
+   */
+  public void setSolverPool(ForkJoinPool solverPool) {
+    this.solverPool = solverPool;
   }
 
   /**
    * Assigns a set of orders for the delivery request such that they fit the [startTime, endTime]
    * timeslot. It creates and returns a Journey object that contains the ids of orders and the 
-   * waypoints that must be visited.
+   * waypoints that must be visited. All available orders are considered at once, choosing as many
+   * of them as possible regardless of the order in which they are stored.
    */
   public Journey createJourneyForDeliveryRequest(DeliverySlot deliverySlot)  throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
-    Point startPoint = deliverySlot.getStartPoint();
-    Journey journey = new Journey(new CourierStop(startPoint), pathFinder);
+    return createJourneysForDeliveryRequests(Arrays.asList(deliverySlot)).get(0);
+  }
+
+  /**
+   * Assigns the available orders to all delivery requests together, such that each order is
+   * delivered by at most one courier and each journey fits its timeslot. Returns the journeys in
+   * the order of deliverySlots. The start points of all slots must be in the same area.
+   */
+  public List<Journey> createJourneysForDeliveryRequests(List<DeliverySlot> deliverySlots)  throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    List<Journey> journeys = new ArrayList<>();
+    if (deliverySlots.isEmpty()) {
+      return journeys;
+    }
     OrderHandler orderHandler = new OrderHandler(pathFinder);
-    // Get unassigned orders from datastore which are in the area of the starting point.
-    List<String> orders = orderHandler.getAvailableOrders(startPoint.getArea());
-    for (String orderKey : orders) {
-      if (journey.getNumberOfWaypoints() >= MAX_WAYPOINTS) {
-        break;
+    // Get unassigned orders from datastore which are in the area of the starting points.
+    List<Order> orders = getCandidateOrders(orderHandler.getAvailableOrdersInArea(deliverySlots.get(0).getStartPoint().getArea()), deliverySlots);
+
+    // The points of the candidate orders have the same indices in the travel time matrices of all
+    // couriers, so the times between them are requested once and used both for choosing the orders
+    // and for solving the journeys. Only the times from each start point differ.
+    List<Point> waypoints = new ArrayList<>();
+    HashMap<Point, Integer> waypointIndices = new HashMap<>();
+    List<Journey.Pair> orderWaypoints = new ArrayList<>();
+    for (Order order : orders) {
+      // The library must be visited before the recipient.
+      orderWaypoints.add(new Journey.Pair(getWaypointIndex(waypoints, waypointIndices, order.getLibrary()),
+          getWaypointIndex(waypoints, waypointIndices, order.getRecipient())));
+    }
+    List<TravelTimeMatrix> travelTimes = new ArrayList<>();
+    List<OrderSelector> orderSelectors = new ArrayList<>();
+    for (DeliverySlot deliverySlot : deliverySlots) {
+      TravelTimeMatrix courierTravelTimes = new TravelTimeMatrix(pathFinder, deliverySlot.getStartPoint());
+      for (Point waypoint : waypoints) {
+        courierTravelTimes.addWaypoint(waypoint);
       }
+      if (!travelTimes.isEmpty()) {
+        courierTravelTimes.copyKnownTimes(travelTimes.get(0));
+      }
+      courierTravelTimes.fill();
+      travelTimes.add(courierTravelTimes);
+      OrderSelector orderSelector = new OrderSelector(courierTravelTimes, (int) deliverySlot.getDurationInSeconds(), MAX_WAYPOINTS);
+      orderSelector.setOrders(orderWaypoints);
+      orderSelectors.add(orderSelector);
+    }
+    for (int order = 0; order < orders.size(); ++order) {
+      final int screenedOrder = order;
+      if (orderSelectors.stream().allMatch(orderSelector -> orderSelector.isScreenedOut(screenedOrder))) {
+        ++numberOfScreenedOutOrders;
+      }
+    }
+    assignOrders(orderSelectors, orders.size());
 
-      LibraryPoint library = new LibraryPoint((double) orderHandler.getProperty(orderKey, OrderHandler.OrderProperty.LIBRARY_LAT.label), 
-        (double) orderHandler.getProperty(orderKey, OrderHandler.OrderProperty.LIBRARY_LNG.label),
-        ((Number) orderHandler.getProperty(orderKey, OrderHandler.OrderProperty.LIBRARY_ID.label)).intValue());
-      Point recipient = new Point((double) orderHandler.getProperty(orderKey, OrderHandler.OrderProperty.RECIPIENT_LAT.label), 
-        (double) orderHandler.getProperty(orderKey, OrderHandler.OrderProperty.RECIPIENT_LNG.label));
-      
-      // Check if the library is already a waypoint in the journey, and add it in case it's not.
-      boolean libraryIsWaypoint = !journey.addPointToWaypoints(library);
-      // Check if the recipient is already a waypoint in the journey, and add it in case it's not.
-      boolean recipientIsWaypoint = !journey.addPointToWaypoints(recipient);
-
-      if (journey.getNumberOfWaypoints() > MAX_WAYPOINTS || !journey.findJourneyForTimeslot(deliverySlot)) {
-        // If the new journey doesn't satisfy user's prefrences, remove the order.
-        if (!libraryIsWaypoint) {
-          // Remove the library from waypoints if it was added only for this order.
-          journey.removeWaypoint(library);
+    boolean[] isAssigned = new boolean[orders.size()];
+    for (int courier = 0; courier < deliverySlots.size(); ++courier) {
+      List<Integer> selectedOrders = orderSelectors.get(courier).getSelectedOrders();
+      journeys.add(createJourneyForOrders(deliverySlots.get(courier), travelTimes.get(courier), orders,
+          selectedOrders));
+      for (int order : selectedOrders) {
+        isAssigned[order] = true;
+      }
+    }
+
+    // The routes of the selectors are not always optimal, thus journeys that are small enough to be
+    // solved exactly may still fit some of the other orders, which are tried cheapest first.
+    for (int courier = 0; courier < deliverySlots.size(); ++courier) {
+      List<Integer> unselectedOrders = orderSelectors.get(courier).getUnselectedOrders();
+      if (unselectedOrders.isEmpty() || journeys.get(courier).getNumberOfWaypoints() >= maxExactWaypoints) {
+        continue;
+      }
+      journeys.get(courier).updateKnownRoute();
+      List<Integer> candidateOrders = new ArrayList<>();
+      for (int order : unselectedOrders) {
+        if (!isAssigned[order]) {
+          candidateOrders.add(order);
         }
-        if (!recipientIsWaypoint) {
-          // Remove the recipient from the waypoints if he has no other order assigned to this 
-          // delivery slot.
-          journey.removeWaypoint(recipient);
+      }
+      if (speculationExecutor != null) {
+        journeys.set(courier, addOrdersSpeculatively(journeys.get(courier), deliverySlots.get(courier), orders, candidateOrders, isAssigned));
+        continue;
+      }
+      for (int order : candidateOrders) {
+        if (addOrderIfItFits(journeys.get(courier), deliverySlots.get(courier), orders.get(order))) {
+          isAssigned[order] = true;
         }
-      } else {
-        // The library must be visited before the recipient.
-        journey.addRestriction(journey.getWaypointIndex(library), journey.getWaypointIndex(recipient));
-        // The order is added to the journey
-        journey.addOrder(orderKey, library, recipient);
+      }
+    }
+    return journeys;
+  }
+
+  /**
+   * Checks the next speculationWidth candidate orders in parallel, each of them on its own copy of
+   * journey, and continues with the copy of the order that fits with the fastest known route. The
+   * copies share the solved rows of the solver of journey, thus each of them only solves the configs
+   * of the new waypoints. The travel times of each copy are requested before the copies are
+   * checked, since pathFinder may use datastore, which only works on the thread of the request. The
+   * other copies are released, and the orders that don't fit are not checked again, since adding
+   * orders doesn't make a journey faster. Returns the journey with all added orders.
+   */
+  private Journey addOrdersSpeculatively(Journey journey, DeliverySlot deliverySlot, List<Order> orders, List<Integer> candidateOrders, boolean[] isAssigned) throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    List<Integer> remainingOrders = new ArrayList<>(candidateOrders);
+    while (!remainingOrders.isEmpty()) {
+      List<Integer> checkedOrders = new ArrayList<>(remainingOrders.subList(0, Math.min(speculationWidth, remainingOrders.size())));
+      List<Journey> speculativeJourneys = new ArrayList<>();
+      List<Future<Boolean>> speculations = new ArrayList<>();
+      for (int order : checkedOrders) {
+        // The copies are made before any of them is solved, since they read the solver of journey.
+        Journey speculativeJourney = new Journey(journey);
+        // The waypoints are added again by addOrderIfItFits, which then finds them already there;
+        // the copy is discarded if the order doesn't fit, thus they don't have to be removed.
+        speculativeJourney.addPointToWaypoints(orders.get(order).getLibrary());
+        speculativeJourney.addPointToWaypoints(orders.get(order).getRecipient());
+        speculativeJourney.getTravelTimes().fill();
+        speculativeJourneys.add(speculativeJourney);
+        speculations.add(speculationExecutor.submit(() -> addOrderIfItFits(speculativeJourney, deliverySlot, orders.get(order))));
+      }
+      int bestOrder = -1;
+      Journey bestJourney = null;
+      for (int index = 0; index < checkedOrders.size(); ++index) {
+        Journey speculativeJourney = speculativeJourneys.get(index);
+        if (!getSpeculationResult(speculations.get(index))) {
+          remainingOrders.remove(checkedOrders.get(index));
+        } else if (bestJourney == null || speculativeJourney.getKnownRouteTime() < bestJourney.getKnownRouteTime()) {
+          bestOrder = checkedOrders.get(index);
+          bestJourney = speculativeJourney;
+        }
+      }
+      for (Journey speculativeJourney : speculativeJourneys) {
+        if (speculativeJourney != bestJourney) {
+          speculativeJourney.release();
+        }
+      }
+      if (bestJourney != null) {
+        journey.release();
+        journey = bestJourney;
+        isAssigned[bestOrder] = true;
+        remainingOrders.remove((Integer) bestOrder);
       }
     }
     return journey;
   }
+
+  /**
+   * Waits for speculation and returns whether its order fits, rethrowing the exceptions of the check.
+   */
+  private boolean getSpeculationResult(Future<Boolean> speculation) throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    try {
+      return speculation.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof ApiException) {
+        throw (ApiException) cause;
+      } else if (cause instanceof DataNotFoundException) {
+        throw (DataNotFoundException) cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof InterruptedException) {
+        throw (InterruptedException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Returns the orders that are among the maxCandidateOrdersPerCourier nearest ones of at least one
+   * courier, in their original order. An order is as far from a courier as the straight-line route
+   * from the start point to its library and then to its recipient, so the routing work depends on
+   * the density of orders around the couriers rather than on all orders in the area.
+   */
+  private List<Order> getCandidateOrders(List<Order> orders, List<DeliverySlot> deliverySlots) {
+    if (orders.size() <= maxCandidateOrdersPerCourier) {
+      return orders;
+    }
+    boolean[] isCandidate = new boolean[orders.size()];
+    double[] detours = new double[orders.size()];
+    for (DeliverySlot deliverySlot : deliverySlots) {
+      Point startPoint = deliverySlot.getStartPoint();
+      // The farthest of the nearest orders found so far is at the head of the queue.
+      PriorityQueue<Integer> nearestOrders = new PriorityQueue<>(maxCandidateOrdersPerCourier + 1,
+          (first, second) -> Double.compare(detours[second], detours[first]));
+      for (int order = 0; order < orders.size(); ++order) {
+        LibraryPoint library = orders.get(order).getLibrary();
+        detours[order] = startPoint.getDistanceInMeters(library) + library.getDistanceInMeters(orders.get(order).getRecipient());
+        nearestOrders.add(order);
+        if (nearestOrders.size() > maxCandidateOrdersPerCourier) {
+          nearestOrders.poll();
+        }
+      }
+      for (int order : nearestOrders) {
+        isCandidate[order] = true;
+      }
+    }
+    List<Order> candidateOrders = new ArrayList<>();
+    for (int order = 0; order < orders.size(); ++order) {
+      if (isCandidate[order]) {
+        candidateOrders.add(orders.get(order));
+      }
+    }
+    return candidateOrders;
+  }
+
+  /**
+   * Assigns orders to the routes of orderSelectors by regret insertion: the next order is the one
+   * that loses the most if it isn't inserted in its cheapest route now, which is the one with the
+   * largest difference between its two cheapest insertions. Orders that fit in a single route come
+   * first. Afterwards the route of each selector is improved and the orders it selects are
+   * excluded from the others.
+   */
+  private void assignOrders(List<OrderSelector> orderSelectors, int numberOfOrders) {
+    boolean[] isAssigned = new boolean[numberOfOrders];
+    while (true) {
+      int bestOrder = -1;
+      int bestSelector = -1;
+      long bestRegret = -1;
+      long bestCost = Long.MAX_VALUE;
+      for (int order = 0; order < numberOfOrders; ++order) {
+        if (isAssigned[order]) {
+          continue;
+        }
+        long cheapestCost = Long.MAX_VALUE;
+        long secondCheapestCost = Long.MAX_VALUE;
+        int cheapestSelector = -1;
+        for (int selector = 0; selector < orderSelectors.size(); ++selector) {
+          long cost = orderSelectors.get(selector).getFeasibleInsertionCost(order);
+          if (cost < cheapestCost) {
+            secondCheapestCost = cheapestCost;
+            cheapestCost = cost;
+            cheapestSelector = selector;
+          } else if (cost < secondCheapestCost) {
+            secondCheapestCost = cost;
+          }
+        }
+        if (cheapestSelector == -1) {
+          continue;
+        }
+        long regret = (secondCheapestCost == Long.MAX_VALUE) ? Long.MAX_VALUE : secondCheapestCost - cheapestCost;
+        if (regret > bestRegret || (regret == bestRegret && cheapestCost < bestCost)) {
+          bestOrder = order;
+          bestSelector = cheapestSelector;
+          bestRegret = regret;
+          bestCost = cheapestCost;
+        }
+      }
+      if (bestOrder == -1) {
+        break;
+      }
+      orderSelectors.get(bestSelector).selectOrder(bestOrder);
+      excludeFromOtherSelectors(orderSelectors, bestSelector, bestOrder);
+      isAssigned[bestOrder] = true;
+    }
+
+    for (int selector = 0; selector < orderSelectors.size(); ++selector) {
+      orderSelectors.get(selector).improveSelection();
+      for (int order : orderSelectors.get(selector).getSelectedOrders()) {
+        excludeFromOtherSelectors(orderSelectors, selector, order);
+      }
+    }
+  }
+
+  private void excludeFromOtherSelectors(List<OrderSelector> orderSelectors, int selector, int order) {
+    for (int otherSelector = 0; otherSelector < orderSelectors.size(); ++otherSelector) {
+      if (otherSelector != selector) {
+        orderSelectors.get(otherSelector).excludeOrder(order);
+      }
+    }
+  }
+
+  /**
+   * Creates the journey of deliverySlot that delivers the selected orders, whose travel times are
+   * copied from travelTimes. If the solver of the journey can't fit them in the slot, the last
+   * selected orders are removed from selectedOrders until it does.
+   */
+  private Journey createJourneyForOrders(DeliverySlot deliverySlot, TravelTimeMatrix travelTimes, List<Order> orders, List<Integer> selectedOrders) throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    while (true) {
+      Journey journey = new Journey(new CourierStop(deliverySlot.getStartPoint()), pathFinder, new AdaptiveRouteSolver(solverPool, maxExactWaypoints));
+      journey.setRouteCache(routeCache);
+      for (int order : selectedOrders) {
+        LibraryPoint library = orders.get(order).getLibrary();
+        Point recipient = orders.get(order).getRecipient();
+        journey.addPointToWaypoints(library);
+        journey.addPointToWaypoints(recipient);
+        journey.addRestriction(journey.getWaypointIndex(library), journey.getWaypointIndex(recipient));
+        journey.addOrder(orders.get(order).getOrderKey(), library, recipient);
+      }
+      journey.getTravelTimes().copyKnownTimes(travelTimes);
+      // The journey is solved fully rather than only checked, since its route is stored with it and
+      // the journey keeps the solved route until it changes.
+      journey.updateKnownRoute();
+      if (selectedOrders.isEmpty() || journey.getKnownRouteTime() <= deliverySlot.getDurationInSeconds()) {
+        return journey;
+      }
+      // The solver of the journey found a slower route than the selector, which can happen if the
+      // journey is solved heuristically, thus the last order is dropped.
+      selectedOrders.remove(selectedOrders.size() - 1);
+    }
+  }
+
+  /**
+   * Adds the order to the journey if the journey can still be solved exactly and completed during
+   * the delivery slot. Returns true if the order was added. The order is first inserted in the known
+   * route of the journey, and the journey is solved again only if that route is slightly too long.
+   */
+  private boolean addOrderIfItFits(Journey journey, DeliverySlot deliverySlot, Order order) throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    LibraryPoint library = order.getLibrary();
+    Point recipient = order.getRecipient();
+    // Check if the library is already a waypoint in the journey, and add it in case it's not.
+    boolean libraryIsWaypoint = !journey.addPointToWaypoints(library);
+    // Check if the recipient is already a waypoint in the journey, and add it in case it's not.
+    boolean recipientIsWaypoint = !journey.addPointToWaypoints(recipient);
+    // The library must be visited before the recipient.
+    int libraryIndex = journey.getWaypointIndex(library);
+    int recipientIndex = journey.getWaypointIndex(recipient);
+    journey.addRestriction(libraryIndex, recipientIndex);
+
+    if (fitsInDeliverySlot(journey, deliverySlot, libraryIndex, recipientIndex)) {
+      // The order is added to the journey
+      journey.addOrder(order.getOrderKey(), library, recipient);
+      return true;
+    }
+    // If the new journey doesn't satisfy user's prefrences, remove the order. The waypoints
+    // added for it are the last ones, thus the journey keeps the solved configs without them.
+    journey.removeRestriction(libraryIndex, recipientIndex);
+    if (!recipientIsWaypoint) {
+      // Remove the recipient from the waypoints if he has no other order assigned to this 
+      // delivery slot.
+      journey.removeWaypoint(recipient);
+    }
+    if (!libraryIsWaypoint) {
+      // Remove the library from waypoints if it was added only for this order.
+      journey.removeWaypoint(library);
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if the journey, to which the waypoints library and recipient were just added, can
+   * be solved exactly and fits in the delivery slot. If inserting them in the known route of the
+   * journey gives a route that fits, the journey is not solved; if that route is much longer than
+   * the slot, the order is rejected without solving the journey either.
+   */
+  private boolean fitsInDeliverySlot(Journey journey, DeliverySlot deliverySlot, int library, int recipient) throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    if (journey.getNumberOfWaypoints() > maxExactWaypoints) {
+      return false;
+    }
+    long duration = deliverySlot.getDurationInSeconds();
+    long insertedRouteTime = journey.insertOrderIntoKnownRoute(library, recipient, duration);
+    if (insertedRouteTime != -1 && insertedRouteTime <= duration) {
+      // The known route with the order inserted fits, thus the optimal one fits as well.
+      return true;
+    }
+    if (insertedRouteTime > duration * (1 + BORDERLINE_TIME_FRACTION)
+        || journey.getTimeLowerBound() > duration
+        || !journey.findJourneyForTimeslot(deliverySlot)) {
+      return false;
+    }
+    journey.updateKnownRoute();
+    return true;
+  }
+
+  /**
+   * Returns the index of point in waypoints, adding it if it's not there yet.
+   */
+  private int getWaypointIndex(List<Point> waypoints, HashMap<Point, Integer> waypointIndices, Point point) {
+    Integer index = waypointIndices.get(point);
+    if (index == null) {
+      index = waypoints.size();
+      waypoints.add(point);
+      waypointIndices.put(point, index);
+    }
+    return index;
+  }
 }
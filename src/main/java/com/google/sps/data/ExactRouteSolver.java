@@ -0,0 +1,595 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * RouteSolver that finds the optimal route using dynamic programming over the subsets of visited
+ * waypoints. The time and memory needed grow exponentially with the number of waypoints.
+ */
+public class ExactRouteSolver implements RouteSolver {
+  // The maximum number of waypoints for which the solver is practical with tables on the heap.
+  public static final int MAX_WAYPOINTS = 20;
+  // The maximum number of waypoints for which the solver is practical with off-heap tables, whose
+  // elements are indexed by ints.
+  public static final int MAX_OFF_HEAP_WAYPOINTS = 25;
+  // Configs are int bitmasks, thus waypoints with greater indices are never part of a table.
+  private static final int MAX_CONFIG_BITS = 30;
+  // The minimum number of configs to be computed at once for which solverPool is used.
+  private static final int MIN_CONFIGS_FOR_PARALLEL_SOLVE = 1 << 14;
+  // Table where the best time at index config * tableStride + lastWaypoint is the minimum time to
+  // visit all waypoints with bits set to 1 in config such that the last visited one is lastWaypoint,
+  // and the previous waypoint is the one visited right before lastWaypoint on the optimal path for
+  // config, or -1 if lastWaypoint is visited first.
+  private RouteTable table;
+  // The users of table, which is shared with the copies of this solver until one of them writes to
+  // it, or null if there is no table yet.
+  private TableUsers tableUsers;
+  // True if the table is stored off the Java heap in a memory-mapped file.
+  private boolean isOffHeap;
+  // The number of elements in each row of bestTime and previousWaypoint.
+  private int tableStride;
+  // The rows of the table for all closed configs smaller than solvedConfigs are
+  // solved for the current waypoints and restrictions.
+  private int solvedConfigs;
+  // The rows of the table only keep the times that are at most tableBound, the
+  // other states are stored as unreachable. A table solved with a bound answers every query whose
+  // bound is smaller or equal.
+  private int tableBound;
+  // The pool used for computing large tables in parallel, or null if they are computed on the
+  // calling thread.
+  private ForkJoinPool solverPool;
+  // The travel times and the number of waypoints of the journey that is being solved.
+  private TravelTimeMatrix travelTimes;
+  private int numberOfWaypoints;
+  // pointsBefore[i] and pointsAfter[i] are bitmasks of the waypoints that must be visited before and
+  // after waypoint i.
+  private int[] pointsBefore;
+  private int[] pointsAfter;
+  // Solver used for quickly finding a route that fits the bound of a feasibility check.
+  private HeuristicRouteSolver probeSolver;
+
+  public ExactRouteSolver() {
+    this(null);
+  }
+
+  /**
+   * Creates a solver that computes large tables in parallel using solverPool. If solverPool is
+   * null, the tables are computed on the calling thread.
+   */
+  public ExactRouteSolver(ForkJoinPool solverPool) {
+    this(solverPool, /** isOffHeap = */ false);
+  }
+
+  /**
+   * Creates a solver that computes large tables in parallel using solverPool and stores them in a
+   * memory-mapped temporary file if isOffHeap is true, which allows solving journeys with up to
+   * MAX_OFF_HEAP_WAYPOINTS waypoints without a huge heap.
+   */
+  public ExactRouteSolver(ForkJoinPool solverPool, boolean isOffHeap) {
+    this.solverPool = solverPool;
+    this.isOffHeap = isOffHeap;
+    tableStride = 0;
+    solvedConfigs = 0;
+    tableBound = Integer.MAX_VALUE;
+    probeSolver = new HeuristicRouteSolver();
+  }
+
+  /**
+   * Counts the solvers that use a table, so that a table shared by copies of a solver is released
+   * when the last of them stops using it.
+   */
+  private static class TableUsers {
+    private final RouteTable table;
+    private int numberOfUsers = 1;
+
+    public TableUsers(RouteTable table) {
+      this.table = table;
+    }
+
+    public synchronized void add() {
+      ++numberOfUsers;
+    }
+
+    public synchronized boolean isShared() {
+      return numberOfUsers > 1;
+    }
+
+    public synchronized void remove() {
+      --numberOfUsers;
+      if (numberOfUsers == 0) {
+        table.release();
+      }
+    }
+  }
+
+  /**
+   * Returns a solver that shares the solved rows of the table with this one. The table is only read
+   * while it is shared: the first solver that writes to it copies the solved rows to a table of its
+   * own, thus a copy whose journey gets new waypoints only computes the rows of the new configs.
+   */
+  @Override
+  public ExactRouteSolver copy() {
+    ExactRouteSolver copy = new ExactRouteSolver(solverPool, isOffHeap);
+    if (tableUsers != null) {
+      tableUsers.add();
+      copy.table = table;
+      copy.tableUsers = tableUsers;
+      copy.tableStride = tableStride;
+      copy.solvedConfigs = solvedConfigs;
+      copy.tableBound = tableBound;
+    }
+    return copy;
+  }
+
+  /**
+   * Stops using the table, which is released if no copy of this solver uses it, so that its memory
+   * is freed by the next garbage collection.
+   */
+  @Override
+  public void release() {
+    if (tableUsers != null) {
+      tableUsers.remove();
+    }
+    table = null;
+    tableUsers = null;
+    tableStride = 0;
+    solvedConfigs = 0;
+  }
+
+  /**
+   * Returns the optimal route for the waypoints of travelTimes, reusing the rows of the configs
+   * solved by previous calls. If the tables were solved with a bound by feasibility checks, they are
+   * first completed with the same bound, since a route that fits the bound is optimal as well.
+   */
+  @Override
+  public RouteSolution solve(TravelTimeMatrix travelTimes, List<Journey.Pair> restrictions) {
+    this.travelTimes = travelTimes;
+    numberOfWaypoints = travelTimes.getNumberOfWaypoints();
+    if (numberOfWaypoints == 0) {
+      return new RouteSolution(new int[0], 0);
+    }
+    if (tableBound != Integer.MAX_VALUE && findOptimalTimePaths(restrictions)) {
+      RouteSolution route = getRouteFromTables();
+      if (route != null) {
+        return route;
+      }
+    }
+    // No route fits the bound of the tables, thus they are solved again without pruning.
+    setTableBound(Integer.MAX_VALUE);
+    if (!findOptimalTimePaths(restrictions)) {
+      // The restrictions can't be satisfied.
+      return null;
+    }
+    return getRouteFromTables();
+  }
+
+  /**
+   * Checks if there is a route of at most maxTime seconds without computing the optimal one. A
+   * route found by the heuristic solver is accepted right away; otherwise the tables are solved
+   * keeping only the states that fit in maxTime, stopping as soon as no state of a layer fits.
+   */
+  @Override
+  public boolean hasRouteWithin(TravelTimeMatrix travelTimes, List<Journey.Pair> restrictions, int maxTime) {
+    this.travelTimes = travelTimes;
+    numberOfWaypoints = travelTimes.getNumberOfWaypoints();
+    if (numberOfWaypoints == 0) {
+      return maxTime >= 0;
+    }
+    RouteSolution probeRoute = probeSolver.solve(travelTimes, restrictions);
+    if (probeRoute != null && probeRoute.getTime() <= maxTime) {
+      return true;
+    }
+    setTableBound(maxTime);
+    if (!findOptimalTimePaths(restrictions)) {
+      return false;
+    }
+    int allWaypointsRow = ((1 << numberOfWaypoints) - 1) * tableStride;
+    return table.getBestTime(allWaypointsRow + findBestLastWaypoint()) <= maxTime;
+  }
+
+  /**
+   * Returns the optimal route stored in the tables, which must be solved for all the waypoints, or
+   * null if there is no route.
+   */
+  private RouteSolution getRouteFromTables() {
+    // the last state of the matrix has all waypoints set to 1
+    int currentState = (1 << numberOfWaypoints) - 1;
+    // currentWaypoint is the one for which bestTime[currentState][currentWaypoint] is minimal
+    int currentWaypoint = findBestLastWaypoint();
+    int minTime = table.getBestTime(currentState * tableStride + currentWaypoint);
+    if (minTime == Integer.MAX_VALUE) {
+      // No solution was found.
+      return null;
+    }
+
+    int[] order = new int[numberOfWaypoints];
+    for (int position = numberOfWaypoints - 1; position >= 0; --position) {
+      order[position] = currentWaypoint;
+      int prevState = currentState ^ (1 << currentWaypoint);
+      currentWaypoint = table.getPreviousWaypoint(currentState * tableStride + currentWaypoint);
+      currentState = prevState;
+    }
+    return new RouteSolution(order, minTime);
+  }
+
+  /**
+   * Sets the bound of the tables to maxTime. The solved rows stay valid if the bound decreases, but
+   * have to be computed again if it increases, since they miss the states that were pruned.
+   */
+  private void setTableBound(int maxTime) {
+    if (maxTime > tableBound) {
+      solvedConfigs = 0;
+    }
+    tableBound = maxTime;
+  }
+
+  /**
+   * Removing waypoint i keeps the rows of configs that don't contain it, thus removing the last
+   * added waypoint is cheap.
+   */
+  @Override
+  public void onWaypointRemoved(int waypointIndex) {
+    if (waypointIndex < MAX_CONFIG_BITS) {
+      solvedConfigs = Math.min(solvedConfigs, 1 << waypointIndex);
+    }
+  }
+
+  /**
+   * Only configs where the second waypoint is visited depend on the restriction: the ones that visit
+   * both waypoints change their rows and the ones without the first waypoint stop or start being
+   * closed under the restrictions.
+   */
+  @Override
+  public void onRestrictionChanged(int first, int second) {
+    if (second < MAX_CONFIG_BITS) {
+      solvedConfigs = Math.min(solvedConfigs, 1 << second);
+    }
+  }
+
+  /**
+   * Returns the first waypoint lastWaypoint for which bestTime[allWaypointsConfig][lastWaypoint] is
+   * minimal. The tables must be solved for all the waypoints.
+   */
+  private int findBestLastWaypoint() {
+    int allWaypointsRow = ((1 << numberOfWaypoints) - 1) * tableStride;
+    int bestLastWaypoint = 0;
+    for (int waypointIndex = 1; waypointIndex < numberOfWaypoints; ++waypointIndex) {
+      if (table.getBestTime(allWaypointsRow + waypointIndex) < table.getBestTime(allWaypointsRow + bestLastWaypoint)) {
+        bestLastWaypoint = waypointIndex;
+      }
+    }
+    return bestLastWaypoint;
+  }
+
+  /**
+   * Makes sure that the table has a row for each config of the current waypoints. The element at
+   * index config * tableStride + lastWaypoint describes the minimum time to visit all points with
+   * bits set to 1 in config such that the last visited point is lastWaypoint; config is a bitmask
+   * where bits set to 1 represent currently visited waypoints. When the table grows, the rows of
+   * solved configs are copied so that they don't have to be computed again. A table shared with
+   * copies of the solver is copied in the same way before it is written. Off-heap tables are
+   * stored in memory-mapped files, and since the configs are solved in increasing order, the rows
+   * are written sequentially. Throws IllegalArgumentException for journeys with more than
+   * MAX_OFF_HEAP_WAYPOINTS waypoints.
+   */
+  private void ensureBestTimeMatrixCapacity() {
+    if (numberOfWaypoints > MAX_OFF_HEAP_WAYPOINTS) {
+      // The size of the table would overflow the int indices of its elements.
+      throw new IllegalArgumentException("Journeys with more than " + MAX_OFF_HEAP_WAYPOINTS
+          + " waypoints can't be solved exactly!");
+    }
+    if (table != null && numberOfWaypoints <= tableStride
+        && (!tableUsers.isShared() || solvedConfigs == 1 << numberOfWaypoints)) {
+      // Rows for the configs of at most tableStride waypoints are already allocated, and a shared
+      // table is not written if all the configs are solved.
+      return;
+    }
+    int size = (1 << numberOfWaypoints) * numberOfWaypoints;
+    RouteTable newTable = isOffHeap ? new MappedRouteTable(size) : new HeapRouteTable(size);
+    // The solved configs only visit waypoints that are still in the journey, thus their rows fit
+    // in the new table even if waypoints were removed.
+    int rowLength = Math.min(tableStride, numberOfWaypoints);
+    for (int config = 0; config < solvedConfigs; ++config) {
+      newTable.copyElements(table, config * tableStride, config * numberOfWaypoints, rowLength);
+    }
+    if (tableUsers != null) {
+      tableUsers.remove();
+    }
+    table = newTable;
+    tableUsers = new TableUsers(newTable);
+    tableStride = numberOfWaypoints;
+  }
+
+  /**
+   * Computes the bestTime and previousWaypoint tables such that bestTime[config][lastWaypoint] is
+   * the min time needed to visit all points with bits set to 1 in config such that the path ends
+   * in lastWaypoint and previousWaypoint[config][lastWaypoint] represents the point that was
+   * visited right before lastWaypoint. The element [config][lastWaypoint] is stored at index
+   * config * tableStride + lastWaypoint of the flat arrays.
+   *
+   * for each closed configuration config from solvedConfigs to (1<<numberOfWaypoints) - 1, AND
+   *   for each waypointIndex i set to 1 in config such that all the waypoints that must be visited
+   *   before i and none of the waypoints that must be visited after i are set to 1 in
+   *   prevConfig = config - (1<<i)
+   *     update bestTime[config][i] with each matrix element bestTime[prevConfig][j] for which
+   *     j is set to 1 in prevConfig, i.e. consider each index j set to 1 in prevConfig as the last
+   *     visited waypoint before i and update bestTime[config][i] with bestTime[prevConfig][j] + the
+   *     time to get from waypoint j to waypoint i.
+   *
+   *     The recurrence is:
+   *     bestTime[config][i] = min(bestTime[prevConfig][j] + travelTimes.getTime(j, i))
+   *     previousWaypoint[config][i] = j, such that bestTime[config][i] ==
+   *       bestTime[prevConfig][j] + travelTimes.getTime(j, i)
+   *
+   * Each row only depends on rows of smaller configs, thus rows of configs smaller than
+   * solvedConfigs are reused. Waypoints are always added at the end, so they only add configs
+   * greater than the solved ones and only the new configs are computed.
+   *
+   * Times greater than tableBound are not kept. Returns false if the computation stopped early
+   * because no route fits in tableBound or satisfies the restrictions.
+   */
+  private boolean findOptimalTimePaths(List<Journey.Pair> restrictions) {
+    ensureBestTimeMatrixCapacity();
+    computePrecedenceMasks(restrictions);
+    int numberOfConfigs = 1 << numberOfWaypoints;
+    // Start with config = 1, since config=0 means no points are visited, so nothing to do.
+    int firstConfig = Math.max(solvedConfigs, 1);
+    boolean isBounded = tableBound != Integer.MAX_VALUE;
+    // The solved configs are only needed for checking if a layer has reachable states.
+    int[] configs = getClosedConfigs(isBounded ? 1 : firstConfig);
+    int numberOfNewConfigs = configs.length - getNumberOfConfigsBefore(configs, firstConfig);
+    boolean isParallel = solverPool != null && numberOfNewConfigs >= MIN_CONFIGS_FOR_PARALLEL_SOLVE;
+    if (isParallel || isBounded) {
+      if (!solveConfigsInLayers(configs, firstConfig, isParallel)) {
+        // The rows computed so far are not needed, since no route fits the bound.
+        return false;
+      }
+    } else {
+      for (int config : configs) {
+        solveConfig(config);
+      }
+    }
+    solvedConfigs = numberOfConfigs;
+    return true;
+  }
+
+  /**
+   * Computes the rows of the configs greater or equal to firstConfig in layers of configs with the
+   * same number of visited waypoints. Each config only depends on configs with one less waypoint
+   * visited, thus the configs of a layer are solved in parallel using solverPool if isParallel is
+   * true. Each config writes only its own row, so the result is the same as the one of the
+   * sequential computation. Returns false as soon as a layer has no reachable state, since no route
+   * can be completed from it.
+   */
+  private boolean solveConfigsInLayers(int[] configs, int firstConfig, boolean isParallel) {
+    int[][] layers = splitConfigsInLayers(configs);
+    for (int visitedWaypoints = 1; visitedWaypoints <= numberOfWaypoints; ++visitedWaypoints) {
+      int[] layer = layers[visitedWaypoints];
+      int firstNewConfig = getNumberOfConfigsBefore(layer, firstConfig);
+      if (isParallel) {
+        solverPool.invoke(new SolveConfigsAction(layer, firstNewConfig, layer.length));
+      } else {
+        for (int index = firstNewConfig; index < layer.length; ++index) {
+          solveConfig(layer[index]);
+        }
+      }
+      if (!hasReachableState(layer)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns an array where the element at index k has the configs with k bits set to 1, in the same
+   * order as in configs.
+   */
+  private int[][] splitConfigsInLayers(int[] configs) {
+    int[] layerSizes = new int[numberOfWaypoints + 1];
+    for (int config : configs) {
+      ++layerSizes[Integer.bitCount(config)];
+    }
+    int[][] layers = new int[numberOfWaypoints + 1][];
+    for (int visitedWaypoints = 0; visitedWaypoints <= numberOfWaypoints; ++visitedWaypoints) {
+      layers[visitedWaypoints] = new int[layerSizes[visitedWaypoints]];
+      layerSizes[visitedWaypoints] = 0;
+    }
+    for (int config : configs) {
+      int visitedWaypoints = Integer.bitCount(config);
+      layers[visitedWaypoints][layerSizes[visitedWaypoints]++] = config;
+    }
+    return layers;
+  }
+
+  /**
+   * Returns the number of configs smaller than firstConfig in the increasingly sorted array configs.
+   */
+  private static int getNumberOfConfigsBefore(int[] configs, int firstConfig) {
+    int index = Arrays.binarySearch(configs, firstConfig);
+    return (index >= 0) ? index : -index - 1;
+  }
+
+  private boolean hasReachableState(int[] configs) {
+    for (int config : configs) {
+      int configRow = config * tableStride;
+      for (int waypointIndex = 0; waypointIndex < numberOfWaypoints; ++waypointIndex) {
+        if (table.getBestTime(configRow + waypointIndex) != Integer.MAX_VALUE) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns in increasing order the configs greater or equal to firstConfig that are closed under
+   * the restrictions, i.e. every waypoint that must be visited before a visited waypoint is visited
+   * as well. Routes only go through closed configs, thus the other ones are never solved: for k
+   * (library, recipient) pairs there are 3^k closed configs out of 4^k.
+   */
+  private int[] getClosedConfigs(int firstConfig) {
+    ConfigList closedConfigs = new ConfigList();
+    addClosedConfigs(numberOfWaypoints - 1, 0, 0, 0, firstConfig, closedConfigs);
+    return Arrays.copyOf(closedConfigs.configs, closedConfigs.size);
+  }
+
+  /**
+   * Adds to closedConfigs the closed configs greater or equal to firstConfig that match config on
+   * the waypoints with indices greater than waypointIndex. The waypoints are decided from the
+   * greatest index to the smallest one, not visiting a waypoint before visiting it, so the configs
+   * are added in increasing order. required and forbidden are the waypoints that must and must not
+   * be visited because of the waypoints decided so far.
+   */
+  private void addClosedConfigs(int waypointIndex, int config, int required, int forbidden, int firstConfig,
+      ConfigList closedConfigs) {
+    if (waypointIndex < 0) {
+      if (config >= firstConfig) {
+        closedConfigs.add(config);
+      }
+      return;
+    }
+    if ((config | ((2 << waypointIndex) - 1)) < firstConfig) {
+      // All configs that can still be built are smaller than firstConfig.
+      return;
+    }
+    int waypointBit = 1 << waypointIndex;
+    if ((required & waypointBit) == 0) {
+      // If the waypoint is not visited, the ones that must be visited after it can't be visited.
+      int newForbidden = forbidden | pointsAfter[waypointIndex];
+      if ((newForbidden & required) == 0) {
+        addClosedConfigs(waypointIndex - 1, config, required, newForbidden, firstConfig, closedConfigs);
+      }
+    }
+    if ((forbidden & waypointBit) == 0) {
+      // If the waypoint is visited, the ones that must be visited before it must be visited.
+      int newRequired = required | pointsBefore[waypointIndex];
+      if ((newRequired & forbidden) == 0) {
+        addClosedConfigs(waypointIndex - 1, config | waypointBit, newRequired, forbidden, firstConfig, closedConfigs);
+      }
+    }
+  }
+
+  /**
+   * Growable array of configs.
+   */
+  private static class ConfigList {
+    private int[] configs = new int[16];
+    private int size = 0;
+
+    public void add(int config) {
+      if (size == configs.length) {
+        configs = Arrays.copyOf(configs, 2 * configs.length);
+      }
+      configs[size++] = config;
+    }
+  }
+
+  /**
+   * Task that solves the configs stored in configs[from], ..., configs[to - 1] by splitting them
+   * into smaller tasks until there are few enough to be solved sequentially.
+   */
+  private class SolveConfigsAction extends RecursiveAction {
+    private static final int MAX_CONFIGS_PER_TASK = 256;
+    private int[] configs;
+    private int from;
+    private int to;
+
+    public SolveConfigsAction(int[] configs, int from, int to) {
+      this.configs = configs;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= MAX_CONFIGS_PER_TASK) {
+        for (int index = from; index < to; ++index) {
+          solveConfig(configs[index]);
+        }
+        return;
+      }
+      int middle = (from + to) / 2;
+      invokeAll(new SolveConfigsAction(configs, from, middle), new SolveConfigsAction(configs, middle, to));
+    }
+  }
+
+  /**
+   * Computes the row of config in bestTime and previousWaypoint from the rows of configs with one
+   * less visited waypoint, which must be solved already.
+   */
+  private void solveConfig(int config) {
+    int configRow = config * tableStride;
+    for (int waypointIndex = 0; waypointIndex < numberOfWaypoints; ++ waypointIndex) {
+      int bestTime = Integer.MAX_VALUE;
+      int previousWaypoint = -1;
+      int prevConfig = config ^ (1 << waypointIndex);
+      // waypointIndex can be the last visited waypoint in config only if all the points that must
+      // be visited before it have been visited and none of the points that must be visited after it.
+      boolean canBeLast = (config & (1 << waypointIndex)) != 0
+          && (pointsBefore[waypointIndex] & ~prevConfig) == 0 && (pointsAfter[waypointIndex] & prevConfig) == 0;
+      if (canBeLast && prevConfig == 0) {
+        // waypointIndex is the first visited waypoint.
+        bestTime = travelTimes.getTimeFromStart(waypointIndex);
+      } else if (canBeLast) {
+        int prevConfigRow = prevConfig * tableStride;
+        for (int lastWaypoint = 0; lastWaypoint < numberOfWaypoints; ++lastWaypoint) {
+          // the lastWaypoint visited in prevConfig must be set to 1
+          if ((prevConfig & (1 << lastWaypoint)) == 0) {
+            continue;
+          }
+          int prevTime = table.getBestTime(prevConfigRow + lastWaypoint);
+          if (prevTime == Integer.MAX_VALUE) {
+            // the state is not valid, thus it should be ignored
+            continue;
+          }
+          // add the time needed to get from lastWaypoint to waypointIndex to bestTime[prevConfig][lastWaypoint]
+          int newJourneyTime = prevTime + travelTimes.getTime(lastWaypoint, waypointIndex);
+          if (newJourneyTime < bestTime) {
+            // update the time need for visiting all points in config, ending in waypointIndex
+            bestTime = newJourneyTime;
+            previousWaypoint = lastWaypoint;
+          }
+        }
+      }
+      if (bestTime > tableBound) {
+        // Prune the states that don't fit the bound, so that no route is extended from them.
+        bestTime = Integer.MAX_VALUE;
+        previousWaypoint = -1;
+      }
+      // Each element of the row is written once, which matters for tables that are not on the heap.
+      table.setBestTime(configRow + waypointIndex, bestTime);
+      table.setPreviousWaypoint(configRow + waypointIndex, previousWaypoint);
+    }
+  }
+
+  /**
+   * Computes for each waypoint i, pointsBefore[i] and pointsAfter[i] = bitmasks where bits set to 1
+   * represent the indices of points that must be visited before and after point i
+   */
+  private void computePrecedenceMasks(List<Journey.Pair> restrictions) {
+    pointsBefore = new int[numberOfWaypoints];
+    pointsAfter = new int[numberOfWaypoints];
+    for (Journey.Pair restriction : restrictions) {
+      // restriction.second must be visited after restriction.first
+      pointsBefore[restriction.second] |= 1 << restriction.first;
+      pointsAfter[restriction.first] |= 1 << restriction.second;
+    }
+  }
+}
@@ -18,9 +18,59 @@ import com.google.maps.errors.ApiException;
 import com.google.sps.data.MapsRequest;
 import java.io.IOException;
 import java.lang.InterruptedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class GoogleMapsPathFinder implements PathFinder {
+  // The matrix is requested in square tiles that fit in one Distance Matrix API request.
+  private static final int TILE_SIZE = Math.min(MapsRequest.MAX_MATRIX_POINTS, (int) Math.sqrt(MapsRequest.MAX_MATRIX_ELEMENTS));
+
   public int getTimeInSecondsBetweenPoints(Point a, Point b) throws ApiException, IOException, InterruptedException, DataNotFoundException { 
     return MapsRequest.getTimeInSecondsBetween2Points(a, b);
   }
+
+  @Override
+  public CompletableFuture<Integer> getTimeInSecondsBetweenPointsAsync(Point a, Point b) {
+    try {
+      return MapsRequest.getTimeInSecondsBetween2PointsAsync(a, b);
+    } catch (IOException e) {
+      CompletableFuture<Integer> future = new CompletableFuture<>();
+      future.completeExceptionally(e);
+      return future;
+    }
+  }
+
+  /**
+   * Requests the matrix from Distance Matrix API in tiles of TILE_SIZE origins and destinations,
+   * thus n points need about (n / TILE_SIZE)^2 requests instead of n^2 requests to Directions API.
+   * All tiles are requested at once and waited for together, thus the matrix takes about as long
+   * as the slowest tile.
+   */
+  @Override
+  public int[][] getTimeMatrix(List<Point> origins, List<Point> destinations) throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    List<CompletableFuture<int[][]>> tiles = new ArrayList<>();
+    for (int firstOrigin = 0; firstOrigin < origins.size(); firstOrigin += TILE_SIZE) {
+      int lastOrigin = Math.min(firstOrigin + TILE_SIZE, origins.size());
+      for (int firstDestination = 0; firstDestination < destinations.size(); firstDestination += TILE_SIZE) {
+        int lastDestination = Math.min(firstDestination + TILE_SIZE, destinations.size());
+        tiles.add(MapsRequest.getTimeMatrixInSecondsAsync(origins.subList(firstOrigin, lastOrigin),
+            destinations.subList(firstDestination, lastDestination)));
+      }
+    }
+
+    int[][] times = new int[origins.size()][destinations.size()];
+    int tileIndex = 0;
+    for (int firstOrigin = 0; firstOrigin < origins.size(); firstOrigin += TILE_SIZE) {
+      int lastOrigin = Math.min(firstOrigin + TILE_SIZE, origins.size());
+      for (int firstDestination = 0; firstDestination < destinations.size(); firstDestination += TILE_SIZE) {
+        int lastDestination = Math.min(firstDestination + TILE_SIZE, destinations.size());
+        int[][] tile = MapsRequest.await(tiles.get(tileIndex++));
+        for (int origin = firstOrigin; origin < lastOrigin; ++origin) {
+          System.arraycopy(tile[origin - firstOrigin], 0, times[origin], firstDestination, lastDestination - firstDestination);
+        }
+      }
+    }
+    return times;
+  }
 }
@@ -0,0 +1,62 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/**
+ * RouteTable stored in flat primitive arrays on the Java heap.
+ */
+class HeapRouteTable implements RouteTable {
+  private int[] bestTime;
+  private byte[] previousWaypoint;
+
+  public HeapRouteTable(int size) {
+    bestTime = new int[size];
+    previousWaypoint = new byte[size];
+  }
+
+  @Override
+  public int getBestTime(int index) {
+    return bestTime[index];
+  }
+
+  @Override
+  public void setBestTime(int index, int time) {
+    bestTime[index] = time;
+  }
+
+  @Override
+  public int getPreviousWaypoint(int index) {
+    return previousWaypoint[index];
+  }
+
+  @Override
+  public void setPreviousWaypoint(int index, int waypointIndex) {
+    previousWaypoint[index] = (byte) waypointIndex;
+  }
+
+  @Override
+  public void copyElements(RouteTable source, int sourceIndex, int index, int length) {
+    if (source instanceof HeapRouteTable) {
+      HeapRouteTable heapSource = (HeapRouteTable) source;
+      System.arraycopy(heapSource.bestTime, sourceIndex, bestTime, index, length);
+      System.arraycopy(heapSource.previousWaypoint, sourceIndex, previousWaypoint, index, length);
+      return;
+    }
+    for (int offset = 0; offset < length; ++offset) {
+      bestTime[index + offset] = source.getBestTime(sourceIndex + offset);
+      previousWaypoint[index + offset] = (byte) source.getPreviousWaypoint(sourceIndex + offset);
+    }
+  }
+}
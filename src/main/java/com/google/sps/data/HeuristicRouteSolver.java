@@ -0,0 +1,338 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RouteSolver that builds a route by cheapest insertion and improves it with 2-opt and Or-opt
+ * moves that keep all restrictions satisfied. The route is not always optimal, but it is found in
+ * polynomial time, so the solver can be used for journeys with hundreds of waypoints.
+ */
+public class HeuristicRouteSolver implements RouteSolver {
+  // The maximum number of consecutive waypoints moved by an Or-opt move.
+  private static final int MAX_SEGMENT_LENGTH = 3;
+  // The maximum number of times the local search goes over all moves.
+  private static final int MAX_IMPROVEMENT_ROUNDS = 50;
+  // The index used for the start point in routes, since it is not a waypoint.
+  private static final int START = -1;
+  // The travel times and the number of waypoints of the journey that is being solved.
+  private TravelTimeMatrix travelTimes;
+  private int numberOfWaypoints;
+  // predecessors[i] and successors[i] are the waypoints that must be visited before and after i.
+  private int[][] predecessors;
+  private int[][] successors;
+  // position[i] is the position of waypoint i in the current route.
+  private int[] position;
+
+  @Override
+  public RouteSolution solve(TravelTimeMatrix travelTimes, List<Journey.Pair> restrictions) {
+    this.travelTimes = travelTimes;
+    numberOfWaypoints = travelTimes.getNumberOfWaypoints();
+    buildRestrictionLists(restrictions);
+    int[] route = buildRouteByCheapestInsertion();
+    if (route == null) {
+      // The restrictions can't be satisfied.
+      return null;
+    }
+    return new RouteSolution(route, improve(route));
+  }
+
+  /**
+   * Improves route in place with 2-opt and Or-opt moves and returns its time. The route may visit
+   * only some of the waypoints of travelTimes, in which case restrictions must only contain
+   * waypoints of the route.
+   */
+  public int improveRoute(TravelTimeMatrix travelTimes, List<Journey.Pair> restrictions, int[] route) {
+    this.travelTimes = travelTimes;
+    numberOfWaypoints = travelTimes.getNumberOfWaypoints();
+    buildRestrictionLists(restrictions);
+    position = new int[numberOfWaypoints];
+    updatePositions(route);
+    return improve(route);
+  }
+
+  private int improve(int[] route) {
+    boolean improved = true;
+    for (int round = 0; improved && round < MAX_IMPROVEMENT_ROUNDS; ++round) {
+      improved = applyTwoOptMoves(route);
+      improved = applyOrOptMoves(route) || improved;
+    }
+    return getRouteTime(route);
+  }
+
+  @Override
+  public boolean hasRouteWithin(TravelTimeMatrix travelTimes, List<Journey.Pair> restrictions, int maxTime) {
+    RouteSolution route = solve(travelTimes, restrictions);
+    return route != null && route.getTime() <= maxTime;
+  }
+
+  /**
+   * The route is computed from scratch on each call, thus there is nothing to update.
+   */
+  @Override
+  public void onWaypointRemoved(int waypointIndex) {}
+
+  /**
+   * The route is computed from scratch on each call, thus there is nothing to update.
+   */
+  @Override
+  public void onRestrictionChanged(int first, int second) {}
+
+  /**
+   * The solver keeps nothing between calls, thus the copy is a new solver.
+   */
+  @Override
+  public HeuristicRouteSolver copy() {
+    return new HeuristicRouteSolver();
+  }
+
+  /**
+   * Returns the time in seconds to get from waypoint from, or from the start point if from is
+   * START, to waypoint to.
+   */
+  private int getTime(int from, int to) {
+    if (from == START) {
+      return travelTimes.getTimeFromStart(to);
+    }
+    return travelTimes.getTime(from, to);
+  }
+
+  private int getRouteTime(int[] route) {
+    int time = 0;
+    int previous = START;
+    for (int waypoint : route) {
+      time += getTime(previous, waypoint);
+      previous = waypoint;
+    }
+    return time;
+  }
+
+  private void buildRestrictionLists(List<Journey.Pair> restrictions) {
+    List<List<Integer>> predecessorLists = new ArrayList<>();
+    List<List<Integer>> successorLists = new ArrayList<>();
+    for (int waypointIndex = 0; waypointIndex < numberOfWaypoints; ++waypointIndex) {
+      predecessorLists.add(new ArrayList<>());
+      successorLists.add(new ArrayList<>());
+    }
+    for (Journey.Pair restriction : restrictions) {
+      predecessorLists.get(restriction.second).add(restriction.first);
+      successorLists.get(restriction.first).add(restriction.second);
+    }
+    predecessors = new int[numberOfWaypoints][];
+    successors = new int[numberOfWaypoints][];
+    for (int waypointIndex = 0; waypointIndex < numberOfWaypoints; ++waypointIndex) {
+      predecessors[waypointIndex] = predecessorLists.get(waypointIndex).stream().mapToInt(Integer::intValue).toArray();
+      successors[waypointIndex] = successorLists.get(waypointIndex).stream().mapToInt(Integer::intValue).toArray();
+    }
+  }
+
+  /**
+   * Builds a route by repeatedly inserting the waypoint whose predecessors have all been inserted
+   * at the position where it increases the route time the least. Returns null if there are
+   * waypoints that can never be inserted because the restrictions form a cycle.
+   */
+  private int[] buildRouteByCheapestInsertion() {
+    int[] route = new int[numberOfWaypoints];
+    int routeLength = 0;
+    position = new int[numberOfWaypoints];
+    boolean[] isInserted = new boolean[numberOfWaypoints];
+    int[] missingPredecessors = new int[numberOfWaypoints];
+    for (int waypointIndex = 0; waypointIndex < numberOfWaypoints; ++waypointIndex) {
+      missingPredecessors[waypointIndex] = predecessors[waypointIndex].length;
+    }
+
+    for (int step = 0; step < numberOfWaypoints; ++step) {
+      long bestIncrease = Long.MAX_VALUE;
+      int bestWaypoint = -1;
+      int bestPosition = -1;
+      for (int waypointIndex = 0; waypointIndex < numberOfWaypoints; ++waypointIndex) {
+        if (isInserted[waypointIndex] || missingPredecessors[waypointIndex] > 0) {
+          continue;
+        }
+        // The successors of waypointIndex are not inserted yet, so it only has to be inserted after
+        // all its predecessors.
+        int firstPosition = 0;
+        for (int predecessor : predecessors[waypointIndex]) {
+          firstPosition = Math.max(firstPosition, position[predecessor] + 1);
+        }
+        for (int insertPosition = firstPosition; insertPosition <= routeLength; ++insertPosition) {
+          int previous = (insertPosition == 0) ? START : route[insertPosition - 1];
+          long increase = getTime(previous, waypointIndex);
+          if (insertPosition < routeLength) {
+            increase += getTime(waypointIndex, route[insertPosition]) - getTime(previous, route[insertPosition]);
+          }
+          if (increase < bestIncrease) {
+            bestIncrease = increase;
+            bestWaypoint = waypointIndex;
+            bestPosition = insertPosition;
+          }
+        }
+      }
+      if (bestWaypoint == -1) {
+        return null;
+      }
+      System.arraycopy(route, bestPosition, route, bestPosition + 1, routeLength - bestPosition);
+      route[bestPosition] = bestWaypoint;
+      ++routeLength;
+      for (int index = bestPosition; index < routeLength; ++index) {
+        position[route[index]] = index;
+      }
+      isInserted[bestWaypoint] = true;
+      for (int successor : successors[bestWaypoint]) {
+        --missingPredecessors[successor];
+      }
+    }
+    return route;
+  }
+
+  private void updatePositions(int[] route) {
+    for (int index = 0; index < route.length; ++index) {
+      position[route[index]] = index;
+    }
+  }
+
+  /**
+   * Reverses the segments route[i..j] for which the route becomes faster and no restriction is
+   * broken. Travel times are not symmetric, so the time of the reversed segment is computed from
+   * prefix sums of the times in both directions. Returns true if the route was improved.
+   */
+  private boolean applyTwoOptMoves(int[] route) {
+    boolean improved = false;
+    // forwardTime[k] and backwardTime[k] are the times of route[0..k] visited in order and in
+    // reverse order.
+    long[] forwardTime = new long[route.length];
+    long[] backwardTime = new long[route.length];
+    computePrefixTimes(route, forwardTime, backwardTime);
+    for (int i = 0; i < route.length - 1; ++i) {
+      int previous = (i == 0) ? START : route[i - 1];
+      for (int j = i + 1; j < route.length; ++j) {
+        if (mustBeVisitedAfterSegmentStart(route[j], i)) {
+          // route[j] must stay after a waypoint in route[i..j - 1], which is also true for all
+          // longer segments.
+          break;
+        }
+        long timeChange = getTime(previous, route[j]) - getTime(previous, route[i])
+            + (backwardTime[j] - backwardTime[i]) - (forwardTime[j] - forwardTime[i]);
+        if (j + 1 < route.length) {
+          timeChange += getTime(route[i], route[j + 1]) - getTime(route[j], route[j + 1]);
+        }
+        if (timeChange < 0) {
+          for (int left = i, right = j; left < right; ++left, --right) {
+            int waypoint = route[left];
+            route[left] = route[right];
+            route[right] = waypoint;
+          }
+          updatePositions(route);
+          computePrefixTimes(route, forwardTime, backwardTime);
+          previous = (i == 0) ? START : route[i - 1];
+          improved = true;
+        }
+      }
+    }
+    return improved;
+  }
+
+  private boolean mustBeVisitedAfterSegmentStart(int waypointIndex, int segmentStart) {
+    for (int predecessor : predecessors[waypointIndex]) {
+      if (position[predecessor] >= segmentStart) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void computePrefixTimes(int[] route, long[] forwardTime, long[] backwardTime) {
+    for (int k = 1; k < route.length; ++k) {
+      forwardTime[k] = forwardTime[k - 1] + getTime(route[k - 1], route[k]);
+      backwardTime[k] = backwardTime[k - 1] + getTime(route[k], route[k - 1]);
+    }
+  }
+
+  /**
+   * Moves segments of at most MAX_SEGMENT_LENGTH consecutive waypoints to the position where the
+   * route becomes faster and no restriction is broken. Returns true if the route was improved.
+   */
+  private boolean applyOrOptMoves(int[] route) {
+    boolean improved = false;
+    for (int segmentLength = 1; segmentLength <= MAX_SEGMENT_LENGTH; ++segmentLength) {
+      for (int i = 0; i + segmentLength <= route.length; ++i) {
+        int end = i + segmentLength;
+        int first = route[i];
+        int last = route[end - 1];
+        int previous = (i == 0) ? START : route[i - 1];
+        // The segment can be moved after position p only if lastPredecessorPosition <= p <
+        // firstSuccessorPosition.
+        int lastPredecessorPosition = -1;
+        int firstSuccessorPosition = route.length;
+        for (int index = i; index < end; ++index) {
+          for (int predecessor : predecessors[route[index]]) {
+            if (position[predecessor] < i) {
+              lastPredecessorPosition = Math.max(lastPredecessorPosition, position[predecessor]);
+            }
+          }
+          for (int successor : successors[route[index]]) {
+            if (position[successor] >= end) {
+              firstSuccessorPosition = Math.min(firstSuccessorPosition, position[successor]);
+            }
+          }
+        }
+        long removalGain = getTime(previous, first);
+        if (end < route.length) {
+          removalGain += getTime(last, route[end]) - getTime(previous, route[end]);
+        }
+        long bestTimeChange = 0;
+        int bestPosition = -2;
+        for (int p = lastPredecessorPosition; p < firstSuccessorPosition; ++p) {
+          if (p >= i - 1 && p < end) {
+            // The segment stays in the same place.
+            continue;
+          }
+          int before = (p == -1) ? START : route[p];
+          long insertionCost = getTime(before, first);
+          if (p + 1 < route.length) {
+            insertionCost += getTime(last, route[p + 1]) - getTime(before, route[p + 1]);
+          }
+          if (insertionCost - removalGain < bestTimeChange) {
+            bestTimeChange = insertionCost - removalGain;
+            bestPosition = p;
+          }
+        }
+        if (bestPosition != -2) {
+          moveSegment(route, i, end, bestPosition);
+          updatePositions(route);
+          improved = true;
+        }
+      }
+    }
+    return improved;
+  }
+
+  /**
+   * Moves route[start..end - 1] right after route[p], or to the beginning of the route if p is -1.
+   */
+  private void moveSegment(int[] route, int start, int end, int p) {
+    int[] segment = new int[end - start];
+    System.arraycopy(route, start, segment, 0, end - start);
+    if (p < start) {
+      System.arraycopy(route, p + 1, route, p + 1 + segment.length, start - p - 1);
+      System.arraycopy(segment, 0, route, p + 1, segment.length);
+    } else {
+      System.arraycopy(route, end, route, start, p - end + 1);
+      System.arraycopy(segment, 0, route, p - segment.length + 1, segment.length);
+    }
+  }
+}
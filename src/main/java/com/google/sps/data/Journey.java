@@ -14,14 +14,15 @@
 package com.google.sps.data;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.IntStream;
 import java.lang.reflect.Array;
 import com.google.maps.errors.ApiException;
 import java.io.IOException;
 import java.lang.InterruptedException;
-import java.time.Duration;
 import java.time.Instant;
 import java.util.HashMap;
 
@@ -43,12 +44,26 @@ public class Journey {
   private List<String> orderKeys;
   // PathFinder Object that finds paths between 2 points by calling Directions API.
   private PathFinder pathFinder;
+  // The travel times between start and waypoints, requested from pathFinder once per pair of points.
+  private TravelTimeMatrix travelTimes;
+  // The solver that finds the order in which waypoints are visited.
+  private RouteSolver routeSolver;
+  // Cache of routes shared with other journeys, or null if routes are always solved.
+  private RouteCache routeCache;
+  // A route that visits all of its waypoints in this order and satisfies the restrictions, kept to
+  // check quickly whether an order fits, or null if no route is known.
+  private int[] knownRoute;
+  private long knownRouteTime;
+  // Increased whenever waypoints or restrictions change, which invalidates the solved route.
+  private int version;
+  // The last optimal route found by routeSolver and the version of the journey it was solved for.
+  private RouteSolution solvedRoute;
+  private int solvedRouteVersion;
 
   /**
-   * Helper class used for computing the bestTime matrix and order restrictions between pairs of
-   * waypoints.
+   * Helper class used for storing order restrictions between pairs of waypoints.
    */
-  private class Pair {
+  static class Pair {
     public int first;
     public int second;
     public Pair(int first, int second) {
@@ -58,17 +73,72 @@ public class Journey {
   }
 
   /**
-   *  Initializes a journey object that starts at start and computes paths using pathFinder.
+   *  Initializes a journey object that starts at start and computes paths using pathFinder. Journeys
+   *  with more than ExactRouteSolver.MAX_WAYPOINTS waypoints are solved heuristically.
    */
   public Journey(CourierStop start, PathFinder pathFinder) {
+    this(start, pathFinder, new AdaptiveRouteSolver(null));
+  }
+
+  /**
+   *  Initializes a journey object that starts at start, computes paths using pathFinder and finds
+   *  the order of waypoints using routeSolver.
+   */
+  public Journey(CourierStop start, PathFinder pathFinder, RouteSolver routeSolver) {
     this.start = start;
     this.pathFinder = pathFinder;
+    this.routeSolver = routeSolver;
+    travelTimes = new TravelTimeMatrix(pathFinder, start.getPoint());
     waypoints = new ArrayList<>();
     restrictions = new ArrayList<>();
     orderKeys = new ArrayList<>();
     minTime = 0;
   }
 
+  /**
+   * Creates a copy of journey whose solver is a copy of the solver of journey, thus the work done to
+   * solve journey is not done again for the copy.
+   */
+  public Journey(Journey journey) {
+    this(journey, journey.routeSolver.copy());
+  }
+
+  /**
+   * Creates a copy of journey that finds the order of waypoints using routeSolver, which must not be
+   * used by other journeys. Changing the copy doesn't change journey, and the travel times known by
+   * journey are not requested again.
+   */
+  public Journey(Journey journey, RouteSolver routeSolver) {
+    this(journey.start, journey.pathFinder, routeSolver);
+    for (CourierStop waypoint : journey.waypoints) {
+      CourierStop waypointCopy = new CourierStop(waypoint.getPoint());
+      for (String orderKey : waypoint.getOrderKeys()) {
+        waypointCopy.addOrderKey(orderKey);
+      }
+      waypoints.add(waypointCopy);
+      travelTimes.addWaypoint(waypoint.getPoint());
+    }
+    travelTimes.copyKnownTimes(journey.travelTimes);
+    for (Pair restriction : journey.restrictions) {
+      restrictions.add(new Pair(restriction.first, restriction.second));
+    }
+    orderKeys.addAll(journey.orderKeys);
+    routeCache = journey.routeCache;
+    knownRoute = (journey.knownRoute == null) ? null : journey.knownRoute.clone();
+    knownRouteTime = journey.knownRouteTime;
+    version = journey.version;
+    solvedRoute = journey.solvedRoute;
+    solvedRouteVersion = journey.solvedRouteVersion;
+  }
+
+  /**
+   * Frees the memory held by the solver of the journey, which must not be changed or solved
+   * afterwards.
+   */
+  public void release() {
+    routeSolver.release();
+  }
+
   public int getNumberOfWaypoints() {
     return waypoints.size();
   }
@@ -83,24 +153,40 @@ public class Journey {
     return orderKeys;
   }
 
+  public TravelTimeMatrix getTravelTimes() {
+    return travelTimes;
+  }
+
+  /**
+   * Sets the cache that is consulted before solving the journey and that stores the solved routes.
+   */
+  public void setRouteCache(RouteCache routeCache) {
+    this.routeCache = routeCache;
+  }
+
   /**
    * Returns true if the minimum time journey fits in the timeslot and false otherwise.
    */
   public boolean findJourneyForTimeslot(DeliverySlot deliverySlot) throws ApiException, DataNotFoundException, IOException, InterruptedException {
-    ArrayList<ArrayList<Pair>> bestTime = findOptimalTimePaths();
-    int numberOfWaypoints = getNumberOfWaypoints();
-    int allWaypointsConfig = (1 << numberOfWaypoints) - 1;
-    int minTime = bestTime.get(allWaypointsConfig).get(0).first;
-    for (int waypointIndex = 0; waypointIndex < numberOfWaypoints; ++waypointIndex) {
-      if (bestTime.get(allWaypointsConfig).get(waypointIndex).first < minTime) {
-        minTime = bestTime.get(allWaypointsConfig).get(waypointIndex).first;
+    if (hasSolvedRoute()) {
+      return solvedRoute.getTime() <= deliverySlot.getDurationInSeconds();
+    }
+    if (routeCache != null) {
+      RouteSolution cachedRoute = routeCache.get(createRouteCacheKey());
+      if (cachedRoute != null) {
+        return cachedRoute.getTime() <= deliverySlot.getDurationInSeconds();
       }
     }
+    travelTimes.fill();
+    return routeSolver.hasRouteWithin(travelTimes, restrictions, (int)deliverySlot.getDurationInSeconds());
+  }
 
-    long deliverySlotDurationInSeconds = Duration.between(deliverySlot.getStartTime().toInstant(),
-        deliverySlot.getEndTime().toInstant()).getSeconds();
-
-    return (minTime <= (int)deliverySlotDurationInSeconds);
+  /**
+   * Returns a lower bound of the time of the journey that is computed without solving it.
+   */
+  public long getTimeLowerBound() throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    travelTimes.fill();
+    return travelTimes.getRouteTimeLowerBound();
   }
 
   /**
@@ -108,134 +194,280 @@ public class Journey {
    * first point to the last one.
    */
   public ArrayList<CourierStop> findOptimalOrderForWaypoints() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
-    ArrayList<ArrayList<Pair>> bestTime = findOptimalTimePaths();
     ArrayList<CourierStop> orderedWaypoints = new ArrayList<>();
-    int numberOfWaypoints = getNumberOfWaypoints();
-    
-    if (numberOfWaypoints == 0) {
+    if (getNumberOfWaypoints() == 0) {
       // Return empty array if there are no waypoints.
       return orderedWaypoints;
     }
-    // the last state of the matrix has all waypoints set to 1
-    int currentState =  (1 << numberOfWaypoints) - 1;
-    
-    int minTime = bestTime.get(currentState).get(0).first;
-    // currentWaypoint is the one for which bestTime[currentState][currentWaypoint] is minimal
-    int currentWaypoint = 0;
-    for (int waypointIndex = 1; waypointIndex < numberOfWaypoints; ++waypointIndex) {
-      if (bestTime.get(currentState).get(waypointIndex).first < minTime) {
-        minTime = bestTime.get(currentState).get(waypointIndex).first;
-        currentWaypoint = waypointIndex;
-      }
-    }
-    
-    if (minTime == Integer.MAX_VALUE) {
+    RouteSolution route = findRoute();
+    if (route == null) {
       // No solution was found.
       throw new BadRequestException("Impossible to create journey with the given constraints!");
     }
-    
-    while (currentState != 0) {
-      orderedWaypoints.add(waypoints.get(currentWaypoint));
-      int prevState = currentState ^ (1 << currentWaypoint);
-      int prevWaypoint = bestTime.get(currentState).get(currentWaypoint).second;
-      currentWaypoint = prevWaypoint;
-      currentState = prevState;
-    }
-    // add the start of the journey at the end of orderedWaypoints.
     orderedWaypoints.add(start);
-    Collections.reverse(orderedWaypoints);
+    for (int waypointIndex : route.getOrder()) {
+      orderedWaypoints.add(waypoints.get(waypointIndex));
+    }
     return orderedWaypoints;
   }
 
   /**
-   * Creates and initializes bestTime matrix, a matrix where bestTime[config][lastWaypoint] = the
-   * minimum time to visit all points with bits set to 1 in config such that the last visited point
-   * is lastWaypoint; config is a bitmask where bits set to 1 represent currently visited waypoints.
+   * Requests the travel times that are not known yet and returns the route found by routeSolver.
+   * The travel times are requested before the route is computed, thus the number of requests does
+   * not depend on the number of routes the solver considers. The route is kept until the waypoints
+   * or restrictions change, thus solving the same journey again only reads it.
    */
-  private ArrayList<ArrayList<Pair>> initializeBestTimeMatrix() throws ApiException, IOException, InterruptedException, DataNotFoundException {
-    ArrayList<ArrayList<Pair>> bestTime = new ArrayList<>();
-    int numberOfWaypoints = getNumberOfWaypoints();
-    for (int config = 0; config < (1 << numberOfWaypoints); ++config) {
-      // add the config-th line to the matrix with numberOfWaypoints columns of Integer.MAX_VALUE
-      ArrayList<Pair> currentRow = new ArrayList<Pair>();
-
-      for (int waypointIndex = 0; waypointIndex < numberOfWaypoints; ++ waypointIndex) {
-        currentRow.add(new Pair(Integer.MAX_VALUE, -1));
+  private RouteSolution findRoute() throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    if (hasSolvedRoute()) {
+      return solvedRoute;
+    }
+    RouteSolution route = null;
+    if (routeCache == null) {
+      travelTimes.fill();
+      route = routeSolver.solve(travelTimes, restrictions);
+    } else {
+      RouteCache.Key key = createRouteCacheKey();
+      route = routeCache.get(key);
+      if (route == null) {
+        travelTimes.fill();
+        route = routeSolver.solve(travelTimes, restrictions);
+        if (route != null) {
+          routeCache.put(key, route);
+        }
       }
-      bestTime.add(currentRow);
     }
+    if (route != null) {
+      solvedRoute = route;
+      solvedRouteVersion = version;
+    }
+    return route;
+  }
 
-    int waypointIndex = 0;
-    for (CourierStop waypoint : waypoints) {
-      Pair currentElement = bestTime.get(1 << waypointIndex).get(waypointIndex);
-      currentElement.first = pathFinder.getTimeInSecondsBetweenPoints(start.getPoint(), waypoint.getPoint());
-      waypointIndex += 1;
+  /**
+   * Returns true if the optimal route was solved after the last change of waypoints or restrictions.
+   */
+  private boolean hasSolvedRoute() {
+    return solvedRoute != null && solvedRouteVersion == version;
+  }
+
+  /**
+   * Returns the time of the known route, or Long.MAX_VALUE if no route is known.
+   */
+  public long getKnownRouteTime() {
+    return (knownRoute == null) ? Long.MAX_VALUE : knownRouteTime;
+  }
+
+  /**
+   * Solves the journey and keeps its route as the known route.
+   */
+  public void updateKnownRoute() throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    RouteSolution route = (getNumberOfWaypoints() == 0) ? new RouteSolution(new int[0], 0) : findRoute();
+    knownRoute = (route == null) ? null : route.getOrder().clone();
+    knownRouteTime = (route == null) ? 0 : route.getTime();
+  }
+
+  /**
+   * Takes the order in which the waypoints were added as the known route, e.g. for journeys whose
+   * route was solved before they were stored. If that order breaks a restriction, the route is
+   * solved instead.
+   */
+  public void useWaypointOrderAsKnownRoute() throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    for (Pair restriction : restrictions) {
+      if (restriction.first > restriction.second) {
+        updateKnownRoute();
+        return;
+      }
     }
+    travelTimes.fill();
+    knownRoute = IntStream.range(0, waypoints.size()).toArray();
+    knownRouteTime = 0;
+    for (int index = 0; index < knownRoute.length; ++index) {
+      knownRouteTime += getTime(index - 1, index);
+    }
+  }
 
-    return bestTime;
+  /**
+   * Returns the start followed by the waypoints in the order of the known route, or null if no
+   * route is known.
+   */
+  public ArrayList<CourierStop> getKnownRouteWaypoints() {
+    if (knownRoute == null) {
+      return null;
+    }
+    ArrayList<CourierStop> orderedWaypoints = new ArrayList<>();
+    orderedWaypoints.add(start);
+    for (int waypointIndex : knownRoute) {
+      orderedWaypoints.add(waypoints.get(waypointIndex));
+    }
+    return orderedWaypoints;
   }
 
   /**
-   * Computes and returns the bestTime matrix such that bestTime[config][latsWaypoint].first is the
-   * min time needed to visit all points with bits set to 1 in config such that the path ends in 
-   * lastWaypoint and bestTime[config][latsWaypoint].second represents the point that was visited 
-   * right before lastWaypoint. 
-   *
-   * for each configuration config from 1 to (1<<(numberOfWaypoints - 1)) - 1, AND 
-   *   for each waypointIndex i from 0 to numberOfWaypoints - 1 that is not set to 1 in config
-   *   AND there is no index k set to 1 in config such that waypoint k must be visited after i
-   *     newConfig = config + (1<<i), i.e. newConfig has bits in config plus the i-th bit set to 1
-   *     update bestTime[newConfig][i] with each matrix element bestTime[config][j] for which
-   *     j is set to 1 in config, i.e. consider each index j set to 1 in config as the last visited
-   *     waypoint before i and update bestTime[newConfig][i].first with bestTime[config][j].first +
-   *     the time to get from waypoint j to waypoint i.
-   *
-   *     The recurrence is: 
-   *     bestTime[newConfig][i].first = min(bestTime[config][j].first + 
-   *       getTimeInSecondsBetweenPoints(waypoint[j], waypoint[i]))
-   *     bestTime[newConfig][j].second = j, such that bestTime[newConfig][i].first ==
-   *       bestTime[config][j].first + getTimeInSecondsBetweenPoints(waypoint[j], waypoint[i])   
+   * Inserts the waypoints library and recipient in the known route, if they are not in it yet, at
+   * the positions where its time increases the least such that library is visited before
+   * recipient. Every valid pair of positions is evaluated with O(1) lookups, thus O(n^2) in total,
+   * and the other waypoints keep their order. If the new route lasts at most maxTime, it becomes the
+   * known route. Returns the time of the new route, or -1 if there is no known route, other
+   * waypoints are missing from it or the new route breaks a restriction.
    */
-  public ArrayList<ArrayList<Pair>> findOptimalTimePaths()  throws ApiException, DataNotFoundException, IOException, InterruptedException {
-    ArrayList<ArrayList<Pair>> bestTime = initializeBestTimeMatrix();
-    ArrayList<Integer> pointsAfter = getPointsAfterFromRestrictions();
-    int numberOfWaypoints = getNumberOfWaypoints();
-    int allWaypointsConfig = (1 << numberOfWaypoints) - 1;
-    // Start with config = 1, since config=0 means no points should be visited, so nothing to do.
-    for (int config = 1; config < allWaypointsConfig; ++config) {
-      for (int waypointIndex = 0; waypointIndex < numberOfWaypoints; ++ waypointIndex) {
-        // check for waypointIndex, the next unvisited point for which none of the points that must
-        // be visited after him have been visited.
-        // TODO[ak47na]: add pointsBefore array and check that all points that must be visited
-        // before the current point have already been visited.
-        if ((config & (1 << waypointIndex)) == 0 && ((pointsAfter.get(waypointIndex) & config) == 0)) {
-          // Set bit wayPointIndex to 1 in newConfig if waypointIndex is set to zero in config AND
-          // all restrictions for waypointIndex are satisfied
-          int newConfig = config | (1 << waypointIndex);
-          for (int lastWaypoint = 0; lastWaypoint < numberOfWaypoints; ++lastWaypoint) {
-            // the lastWaypoint visited in config must be set to 1
-            if ((config & (1 << lastWaypoint)) != 0) {
-              // add the time needed to get from lastWaypoint to waypointIndex to bestTime[config][lastWaypoint]
-              if (bestTime.get(config).get(lastWaypoint).first == Integer.MAX_VALUE) {
-                // the state is not valid, thus it should be ignored
-                continue;
-              }
-              int newJourneyTime = bestTime.get(config).get(lastWaypoint).first +
-                  pathFinder.getTimeInSecondsBetweenPoints(waypoints.get(lastWaypoint).getPoint(), waypoints.get(waypointIndex).getPoint());
-              if (newJourneyTime < bestTime.get(newConfig).get(waypointIndex).first) {
-                // update the time need for visiting all points in newConfig, ending in waypointIndex
-                bestTime.get(newConfig).set(waypointIndex, new Pair(newJourneyTime, lastWaypoint));
-              }
-            }
+  public long insertOrderIntoKnownRoute(int library, int recipient, long maxTime) throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    if (knownRoute == null) {
+      return -1;
+    }
+    travelTimes.fill();
+    int routeLength = knownRoute.length;
+    int[] position = new int[waypoints.size()];
+    Arrays.fill(position, -1);
+    for (int index = 0; index < routeLength; ++index) {
+      position[knownRoute[index]] = index;
+    }
+    for (int waypoint = 0; waypoint < waypoints.size(); ++waypoint) {
+      if (position[waypoint] == -1 && waypoint != library && waypoint != recipient) {
+        return -1;
+      }
+    }
+
+    // The waypoints are inserted right before knownRoute[index], or at the end if index is
+    // routeLength. A waypoint that is already visited keeps its position.
+    boolean isLibraryNew = position[library] == -1;
+    boolean isRecipientNew = position[recipient] == -1 && recipient != library;
+    long bestCost = Long.MAX_VALUE;
+    int bestLibraryIndex = -1;
+    int bestRecipientIndex = -1;
+    for (int libraryIndex = 0; libraryIndex <= routeLength; ++libraryIndex) {
+      if (!isLibraryNew && libraryIndex > 0) {
+        break;
+      }
+      for (int recipientIndex = 0; recipientIndex <= routeLength; ++recipientIndex) {
+        if (!isRecipientNew && recipientIndex > 0) {
+          break;
+        }
+        long cost;
+        if (isLibraryNew && isRecipientNew) {
+          if (recipientIndex < libraryIndex) {
+            continue;
+          }
+          cost = (recipientIndex == libraryIndex)
+              ? getPairInsertionCost(library, recipient, libraryIndex)
+              : getWaypointInsertionCost(library, libraryIndex) + getWaypointInsertionCost(recipient, recipientIndex);
+        } else if (isLibraryNew) {
+          if (recipient != library && libraryIndex > position[recipient]) {
+            continue;
           }
+          cost = getWaypointInsertionCost(library, libraryIndex);
+        } else if (isRecipientNew) {
+          if (recipientIndex <= position[library]) {
+            continue;
+          }
+          cost = getWaypointInsertionCost(recipient, recipientIndex);
+        } else {
+          if (recipient != library && position[library] > position[recipient]) {
+            return -1;
+          }
+          cost = 0;
+        }
+        if (cost < bestCost) {
+          bestCost = cost;
+          bestLibraryIndex = libraryIndex;
+          bestRecipientIndex = recipientIndex;
         }
       }
     }
-    return bestTime;
+
+    List<Integer> route = new ArrayList<>();
+    for (int index = 0; index <= routeLength; ++index) {
+      if (isLibraryNew && index == bestLibraryIndex) {
+        route.add(library);
+      }
+      if (isRecipientNew && index == bestRecipientIndex) {
+        route.add(recipient);
+      }
+      if (index < routeLength) {
+        route.add(knownRoute[index]);
+      }
+    }
+    for (int index = 0; index < route.size(); ++index) {
+      position[route.get(index)] = index;
+    }
+    for (Pair restriction : restrictions) {
+      if (position[restriction.first] > position[restriction.second]) {
+        return -1;
+      }
+    }
+    long routeTime = knownRouteTime + bestCost;
+    if (routeTime <= maxTime) {
+      knownRoute = route.stream().mapToInt(Integer::intValue).toArray();
+      knownRouteTime = routeTime;
+    }
+    return routeTime;
+  }
+
+  /**
+   * Returns the time from waypoint from to waypoint to in the journey, where -1 is the start point.
+   */
+  private int getTime(int from, int to) {
+    return (from == -1) ? travelTimes.getTimeFromStart(to) : travelTimes.getTime(from, to);
+  }
+
+  /**
+   * Returns the increase of the time of the known route if waypoint is visited right before
+   * knownRoute[index], or at the end if index is the length of the route.
+   */
+  private long getWaypointInsertionCost(int waypoint, int index) {
+    int previous = (index == 0) ? -1 : knownRoute[index - 1];
+    long cost = getTime(previous, waypoint);
+    if (index < knownRoute.length) {
+      cost += getTime(waypoint, knownRoute[index]) - getTime(previous, knownRoute[index]);
+    }
+    return cost;
   }
 
+  /**
+   * Returns the increase of the time of the known route if first and then second are visited right
+   * before knownRoute[index], or at the end if index is the length of the route.
+   */
+  private long getPairInsertionCost(int first, int second, int index) {
+    int previous = (index == 0) ? -1 : knownRoute[index - 1];
+    long cost = getTime(previous, first) + getTime(first, second);
+    if (index < knownRoute.length) {
+      cost += getTime(second, knownRoute[index]) - getTime(previous, knownRoute[index]);
+    }
+    return cost;
+  }
+
+  private RouteCache.Key createRouteCacheKey() {
+    List<Point> waypointPoints = new ArrayList<>();
+    for (CourierStop waypoint : waypoints) {
+      waypointPoints.add(waypoint.getPoint());
+    }
+    return RouteCache.createKey(start.getPoint(), waypointPoints, restrictions);
+  }
+
+  /**
+   * Adds the restriction that waypoint first is visited before waypoint second. A waypoint is
+   * visited once, thus a restriction of a waypoint to itself always holds and is not stored.
+   */
   public void addRestriction(int first, int second) {
+    if (first == second) {
+      return;
+    }
     restrictions.add(new Pair(first, second));
+    routeSolver.onRestrictionChanged(first, second);
+    ++version;
+  }
+
+  /**
+   * Removes a restriction added with addRestriction(first, second).
+   */
+  public void removeRestriction(int first, int second) {
+    for (int index = restrictions.size() - 1; index >= 0; --index) {
+      if (restrictions.get(index).first == first && restrictions.get(index).second == second) {
+        restrictions.remove(index);
+        routeSolver.onRestrictionChanged(first, second);
+        ++version;
+        return;
+      }
+    }
   }
 
   public void addOrder(String orderKey, LibraryPoint library, Point recipient) throws DataNotFoundException {
@@ -245,20 +477,6 @@ public class Journey {
     waypoints.get(getWaypointIndex(recipient)).addOrderKey(orderKey);
   }
 
-  /**
-   * Computes for each waypoint i, pointsAfter[i] = bitmask where bits set to 1 represent the
-   * indices of points that must be visited after point i
-   */
-  private ArrayList<Integer> getPointsAfterFromRestrictions() {
-    ArrayList<Integer> pointsAfter = new ArrayList<>(Collections.nCopies(getNumberOfWaypoints(), 0));
-    for (Pair restriction : restrictions) {
-      // restriction.second must be visited after restriction.first
-      int currentBitmask = pointsAfter.get(restriction.first);
-      pointsAfter.set(restriction.first, currentBitmask | (1 << restriction.second));
-    }
-    return pointsAfter;
-  }
-
   /**
    * Returns the index of point in waypoints array.
    */
@@ -283,6 +501,8 @@ public class Journey {
     } catch(DataNotFoundException e) {
       // Add the point at the end of waypoints array.
       waypoints.add(new CourierStop(point));
+      travelTimes.addWaypoint(point);
+      ++version;
       return true;
     }
   }
@@ -291,6 +511,17 @@ public class Journey {
    * Removes point from waypoints and decreases the number of waypoints.
    */
   public void removeWaypoint(Point point) throws DataNotFoundException {
-    waypoints.remove(getWaypointIndex(point));
+    int waypointIndex = getWaypointIndex(point);
+    waypoints.remove(waypointIndex);
+    travelTimes.removeWaypoint(waypointIndex);
+    routeSolver.onWaypointRemoved(waypointIndex);
+    ++version;
+    if (knownRoute != null) {
+      if (Arrays.stream(knownRoute).anyMatch(waypoint -> waypoint == waypointIndex)) {
+        knownRoute = null;
+      } else {
+        knownRoute = Arrays.stream(knownRoute).map(waypoint -> waypoint > waypointIndex ? waypoint - 1 : waypoint).toArray();
+      }
+    }
   }
 }
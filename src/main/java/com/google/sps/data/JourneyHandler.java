@@ -19,20 +19,39 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Transaction;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.maps.errors.ApiException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /** 
  * Class that stores and creates journeys for delivery slots.
  */
 public class JourneyHandler {
+  // Journeys whose orders were claimed by other couriers meanwhile are planned again at most this
+  // many times; slots that still don't get a journey stay pending.
+  private static final int MAX_PLANNING_ATTEMPTS = 3;
+  // New orders are only tried in this many open journeys, the ones with the shortest straight-line
+  // detour, so that placing an order doesn't solve every journey of the area.
+  private static final int MAX_OPEN_JOURNEYS_PER_ORDER = 5;
+  private static final Logger logger = Logger.getLogger(JourneyHandler.class.getName());
   private PathFinder pathFinder;
 
   public JourneyHandler(PathFinder pathFinder) {
@@ -40,40 +59,292 @@ public class JourneyHandler {
   }
 
   /**
-   * Finds a set of orders and an optimal journey for deliverySlot. If no orders have been found,
-   * for the given deliverySlot, it returns false, otherwise it returns true.
+   * Assigns the available orders to all pending delivery slots that overlap the [windowStart,
+   * windowEnd] interval together, so that couriers of the same area don't compete for the orders
+   * one at a time. Each slot that gets orders is stored with its journey and marked as
+   * dispatched; the others stay pending for later runs. If the journey of a slot can't be stored,
+   * its orders are given back and the other slots are still dispatched. Returns the number of
+   * created journeys.
    */
-  public boolean processDeliveryRequest(DeliverySlot deliverySlot) throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+  public int dispatchDeliveryRequests(Date windowStart, Date windowEnd) throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    DeliverySlotManager slotManager = new DeliverySlotManager();
+    // Orders are only delivered by couriers from the same area.
+    HashMap<Integer, List<DeliverySlot>> deliverySlotsByArea = new HashMap<>();
+    for (DeliverySlot deliverySlot : slotManager.getPendingDeliverySlotRequests(windowStart, windowEnd)) {
+      deliverySlotsByArea.computeIfAbsent(deliverySlot.getStartPoint().getArea(), area -> new ArrayList<>()).add(deliverySlot);
+    }
+
     DeliverySystem deliverySystem = new DeliverySystem(pathFinder);
     OrderHandler orderHandler = new OrderHandler(pathFinder);
-    // Assign orders for the slot and create a journey with them. 
-    Journey journey = deliverySystem.createJourneyForDeliveryRequest(deliverySlot);
-    List<String> orderKeys = journey.getOrders();
-    if (orderKeys == null || orderKeys.size() == 0) {
-      // There are no orders that can be assigned to deliverSlot.
-      return false;
+    int numberOfJourneys = 0;
+    for (List<DeliverySlot> areaDeliverySlots : deliverySlotsByArea.values()) {
+      List<DeliverySlot> deliverySlots = areaDeliverySlots;
+      for (int attempt = 0; attempt < MAX_PLANNING_ATTEMPTS && !deliverySlots.isEmpty(); ++attempt) {
+        List<Journey> journeys = deliverySystem.createJourneysForDeliveryRequests(deliverySlots);
+        // The couriers that lost orders to concurrent requests are planned again together, with the
+        // orders that are still available; the journeys of the others are kept.
+        List<DeliverySlot> lostDeliverySlots = new ArrayList<>();
+        for (int courier = 0; courier < deliverySlots.size(); ++courier) {
+          List<String> orderKeys = journeys.get(courier).getOrders();
+          if (orderKeys == null || orderKeys.size() == 0) {
+            continue;
+          }
+          try {
+            if (!orderHandler.claimOrders(orderKeys).isEmpty()) {
+              lostDeliverySlots.add(deliverySlots.get(courier));
+              continue;
+            }
+          } catch (ConcurrentModificationException e) {
+            // claimOrders gave back the orders it claimed, thus the slot stays pending.
+            logger.log(Level.WARNING, "Unable to claim the orders of delivery slot " + deliverySlots.get(courier).getSlotId(), e);
+            continue;
+          }
+          // The orders are claimed before the journey is stored, thus they are given back if the slot
+          // isn't dispatched, e.g. because an overlapping run dispatched it meanwhile.
+          boolean isDispatched = false;
+          try {
+            isDispatched = addDeliveryJourney(journeys.get(courier), deliverySlots.get(courier));
+          } catch (ApiException | BadRequestException | ConcurrentModificationException | DataNotFoundException | EntityNotFoundException | IOException e) {
+            logger.log(Level.WARNING, "Unable to store the journey of delivery slot " + deliverySlots.get(courier).getSlotId(), e);
+          } finally {
+            if (!isDispatched) {
+              giveBackOrders(orderHandler, orderKeys);
+            }
+          }
+          if (isDispatched) {
+            ++numberOfJourneys;
+          }
+        }
+        deliverySlots = lostDeliverySlots;
+      }
     }
-    //TODO[ak47na]: when updateStatusForOrders will use transactions, return false if transaction failed.
-    orderHandler.updateStatusForOrders(orderKeys, OrderHandler.OrderStatus.ASSIGNED.toString());
-    addDeliveryJourney(journey, deliverySlot);
-    return true;
+    return numberOfJourneys;
   }
 
   /**
-   * Adds the details of the delivery journey assigned to deliverySlot to datastore.
+   * Adds the details of the delivery journey assigned to deliverySlot to datastore and marks the
+   * slot as dispatched, if it is still pending. Returns false if the slot was dispatched meanwhile.
    */
-  private void addDeliveryJourney(Journey journey, DeliverySlot deliverySlot) throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+  boolean addDeliveryJourney(Journey journey, DeliverySlot deliverySlot) throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
     // Find the optimal order in which points of the journey should be visited. 
     ArrayList<CourierStop> orderedWaypoints = journey.findOptimalOrderForWaypoints();
     Entity journeyEntity = new Entity("Journey");
     journeyEntity.setProperty("startDate", deliverySlot.getStartTime());
     journeyEntity.setProperty("endDate", deliverySlot.getEndTime());
     journeyEntity.setProperty("uid", deliverySlot.getUserId());
+    journeyEntity.setProperty("slotId", deliverySlot.getSlotId());
+    // Orders placed later are only added to journeys from their area, see addOrderToOpenJourney.
+    journeyEntity.setProperty("area", deliverySlot.getStartPoint().getArea());
     Gson gson = new Gson();
     // Store the array of waypoints as a Json string so that when the journey is displayed, the data
     // for each point is shown (e.g. it shows the books to be rented from LibraryPoint poits).
     journeyEntity.setProperty("waypoints", gson.toJson(orderedWaypoints));
-    DatastoreServiceFactory.getDatastoreService().put(journeyEntity);
+    return new DeliverySlotManager().markDeliverySlotAsDispatched(deliverySlot.getSlotId(), journeyEntity);
+  }
+
+  /**
+   * Adds order to the stored journey of its area that hasn't started yet and whose route gets the
+   * least longer, if the route still fits in the delivery slot of the journey. Only the
+   * MAX_OPEN_JOURNEYS_PER_ORDER journeys with the shortest straight-line detour are considered. The
+   * order is inserted in the stored route without changing the order of the other stops, then it is
+   * claimed and the stored journey is updated in place. Returns true if the order was added to a
+   * journey.
+   */
+  public boolean addOrderToOpenJourney(Order order) throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Entity bestJourneyEntity = null;
+    Journey bestJourney = null;
+    long bestTimeIncrease = Long.MAX_VALUE;
+    for (Entity journeyEntity : getNearestJourneys(getOpenJourneys(order.getLibrary().getArea(), new Date()), order)) {
+      Journey journey = createJourneyFromEntity(journeyEntity);
+      long routeTime = journey.getKnownRouteTime();
+      journey.addPointToWaypoints(order.getLibrary());
+      journey.addPointToWaypoints(order.getRecipient());
+      int library = journey.getWaypointIndex(order.getLibrary());
+      int recipient = journey.getWaypointIndex(order.getRecipient());
+      journey.addRestriction(library, recipient);
+      journey.addOrder(order.getOrderKey(), order.getLibrary(), order.getRecipient());
+      long duration = (((Date) journeyEntity.getProperty("endDate")).getTime() - ((Date) journeyEntity.getProperty("startDate")).getTime()) / 1000;
+      long insertedRouteTime = journey.insertOrderIntoKnownRoute(library, recipient, duration);
+      if (insertedRouteTime != -1 && insertedRouteTime <= duration && insertedRouteTime - routeTime < bestTimeIncrease) {
+        bestJourneyEntity = journeyEntity;
+        bestJourney = journey;
+        bestTimeIncrease = insertedRouteTime - routeTime;
+      }
+    }
+    if (bestJourney == null) {
+      return false;
+    }
+    OrderHandler orderHandler = new OrderHandler(pathFinder);
+    if (!orderHandler.claimOrders(Arrays.asList(order.getOrderKey())).isEmpty()) {
+      // The order was assigned to another courier meanwhile.
+      return false;
+    }
+    boolean isUpdated = false;
+    try {
+      isUpdated = updateJourneyWaypoints(bestJourneyEntity, new Gson().toJson(bestJourney.getKnownRouteWaypoints()));
+    } finally {
+      if (!isUpdated) {
+        // The journey was changed meanwhile or couldn't be stored, thus the order is given back to be
+        // dispatched later.
+        giveBackOrders(orderHandler, Arrays.asList(order.getOrderKey()));
+      }
+    }
+    return isUpdated;
+  }
+
+  /**
+   * Marks the claimed orders with the keyString from orderKeys as ADDED again, so that they are
+   * dispatched later.
+   */
+  private void giveBackOrders(OrderHandler orderHandler, List<String> orderKeys) {
+    List<String> remainingOrderKeys = new ArrayList<>(orderKeys);
+    while (!remainingOrderKeys.isEmpty()) {
+      try {
+        orderHandler.updateStatusForOrders(remainingOrderKeys, OrderHandler.OrderStatus.ADDED.toString());
+        return;
+      } catch (EntityNotFoundException e) {
+        // The order was deleted meanwhile, thus the other orders are given back without it.
+        remainingOrderKeys.removeIf(orderKey -> KeyFactory.stringToKey(orderKey).equals(e.getKey()));
+      }
+    }
+  }
+
+  /**
+   * Returns the MAX_OPEN_JOURNEYS_PER_ORDER journeys of journeyEntities whose stored routes get the
+   * shortest straight-line detour when the library and the recipient of order are visited one after
+   * the other between two of their stops. The travel times are not requested, thus the others are
+   * skipped without any lookup.
+   */
+  private List<Entity> getNearestJourneys(List<Entity> journeyEntities, Order order) throws BadRequestException {
+    if (journeyEntities.size() <= MAX_OPEN_JOURNEYS_PER_ORDER) {
+      return journeyEntities;
+    }
+    HashMap<Entity, Double> detours = new HashMap<>();
+    double orderDistance = order.getLibrary().getDistanceInMeters(order.getRecipient());
+    for (Entity journeyEntity : journeyEntities) {
+      List<Point> stops = getStopPoints(journeyEntity);
+      double detour = Double.MAX_VALUE;
+      for (int stop = 0; stop < stops.size(); ++stop) {
+        double insertionDetour = stops.get(stop).getDistanceInMeters(order.getLibrary()) + orderDistance;
+        if (stop + 1 < stops.size()) {
+          insertionDetour += order.getRecipient().getDistanceInMeters(stops.get(stop + 1))
+              - stops.get(stop).getDistanceInMeters(stops.get(stop + 1));
+        }
+        detour = Math.min(detour, insertionDetour);
+      }
+      detours.put(journeyEntity, detour);
+    }
+    List<Entity> nearestJourneys = new ArrayList<>(journeyEntities);
+    nearestJourneys.sort(Comparator.comparing(detours::get));
+    return nearestJourneys.subList(0, MAX_OPEN_JOURNEYS_PER_ORDER);
+  }
+
+  /**
+   * Returns the points of the stops stored in journeyEntity, starting with the start point of the
+   * courier.
+   */
+  private List<Point> getStopPoints(Entity journeyEntity) throws BadRequestException {
+    List<Point> stopPoints = new ArrayList<>();
+    for (JsonElement stop : new JsonParser().parse((String) journeyEntity.getProperty("waypoints")).getAsJsonArray()) {
+      JsonObject point = stop.getAsJsonObject().getAsJsonObject("point");
+      stopPoints.add(new Point(point.get("latitude").getAsDouble(), point.get("longitude").getAsDouble()));
+    }
+    return stopPoints;
+  }
+
+  /**
+   * Returns the stored journeys of area whose delivery slots start after now.
+   */
+  private List<Entity> getOpenJourneys(int area, Date now) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Query query = new Query("Journey")
+        .setFilter(Query.CompositeFilterOperator.and(
+            new Query.FilterPredicate("area", Query.FilterOperator.EQUAL, area),
+            new Query.FilterPredicate("startDate", Query.FilterOperator.GREATER_THAN, now)));
+    return datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
+  }
+
+  /**
+   * Creates the journey stored in journeyEntity, with its stored route as the known route. The
+   * library of each order is the stop with its key that is a library, or the first one if the
+   * library was stored as a Point.
+   */
+  private Journey createJourneyFromEntity(Entity journeyEntity) throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    JsonArray stops = new JsonParser().parse((String) journeyEntity.getProperty("waypoints")).getAsJsonArray();
+    Journey journey = null;
+    HashMap<String, Point> libraries = new HashMap<>();
+    for (JsonElement stop : stops) {
+      JsonObject point = stop.getAsJsonObject().getAsJsonObject("point");
+      // Gson stores the fields of the runtime type, thus libraries keep their ids.
+      Point waypoint = point.has("libraryId")
+          ? new LibraryPoint(point.get("latitude").getAsDouble(), point.get("longitude").getAsDouble(), point.get("libraryId").getAsInt())
+          : new Point(point.get("latitude").getAsDouble(), point.get("longitude").getAsDouble());
+      if (journey == null) {
+        // The first stop is the start of the courier.
+        journey = new Journey(new CourierStop(waypoint), pathFinder);
+        continue;
+      }
+      journey.addPointToWaypoints(waypoint);
+      for (JsonElement orderKeyElement : stop.getAsJsonObject().getAsJsonArray("orderKeys")) {
+        String orderKey = orderKeyElement.getAsString();
+        Point library = libraries.remove(orderKey);
+        if (library == null) {
+          libraries.put(orderKey, waypoint);
+          continue;
+        }
+        Point recipient = waypoint;
+        if (!(library instanceof LibraryPoint) && recipient instanceof LibraryPoint) {
+          // The recipient was stored before the library, which useWaypointOrderAsKnownRoute detects.
+          recipient = library;
+          library = waypoint;
+        }
+        journey.addRestriction(journey.getWaypointIndex(library), journey.getWaypointIndex(recipient));
+        // A library at the same place as an earlier recipient is stored as a Point. The library point
+        // is only used to find the waypoint of the library, thus its id is not needed.
+        LibraryPoint libraryPoint = (library instanceof LibraryPoint) ? (LibraryPoint) library : new LibraryPoint(library.latitude, library.longitude, -1);
+        journey.addOrder(orderKey, libraryPoint, recipient);
+      }
+    }
+    journey.useWaypointOrderAsKnownRoute();
+    return journey;
+  }
+
+  /**
+   * Stores waypoints as the waypoints of journeyEntity if the stored journey hasn't changed since
+   * journeyEntity was read. Returns true if the journey was updated.
+   */
+  private boolean updateJourneyWaypoints(Entity journeyEntity, String waypoints) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      Entity storedJourney = datastore.get(transaction, journeyEntity.getKey());
+      if (!journeyEntity.getProperty("waypoints").equals(storedJourney.getProperty("waypoints"))) {
+        return false;
+      }
+      storedJourney.setProperty("waypoints", waypoints);
+      datastore.put(transaction, storedJourney);
+      transaction.commit();
+      return true;
+    } catch (ConcurrentModificationException | EntityNotFoundException e) {
+      return false;
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /**
+   * Returns the journey stored for the delivery slot with the given slotId, or null if the slot
+   * hasn't been dispatched yet.
+   */
+  public Entity getJourneyForDeliverySlot(String slotId) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Query query =
+        new Query("Journey")
+            .setFilter(new Query.FilterPredicate("slotId", Query.FilterOperator.EQUAL, slotId));
+    List<Entity> journeys = datastore.prepare(query).asList(FetchOptions.Builder.withLimit(1));
+    return journeys.isEmpty() ? null : journeys.get(0);
   }
 
   public List<Entity> getJourneysForUser(String userId) {
@@ -0,0 +1,119 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * RouteTable stored in a memory-mapped temporary file instead of the Java heap, so that tables of
+ * several gigabytes don't need a larger heap. The file is sparse, thus only the pages of the rows
+ * that are written take memory or disk space, and the operating system can write them to disk when
+ * memory is short. A buffer maps at most 2GB, thus the table is split in chunks of elements.
+ */
+class MappedRouteTable implements RouteTable {
+  // Each chunk stores 2^DEFAULT_CHUNK_BITS elements, i.e. 256MB of times and 64MB of waypoints.
+  private static final int DEFAULT_CHUNK_BITS = 26;
+  private final int chunkBits;
+  private final int chunkMask;
+  private final IntBuffer[] bestTimeChunks;
+  private final ByteBuffer[] previousWaypointChunks;
+
+  public MappedRouteTable(int size) {
+    this(size, DEFAULT_CHUNK_BITS);
+  }
+
+  MappedRouteTable(int size, int chunkBits) {
+    this.chunkBits = chunkBits;
+    this.chunkMask = (1 << chunkBits) - 1;
+    int numberOfChunks = (size + chunkMask) >>> chunkBits;
+    bestTimeChunks = new IntBuffer[numberOfChunks];
+    previousWaypointChunks = new ByteBuffer[numberOfChunks];
+    try {
+      mapChunks(size);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to map the route table to a temporary file", e);
+    }
+  }
+
+  private void mapChunks(int size) throws IOException {
+    File file = File.createTempFile("route-table", ".bin");
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      FileChannel channel = randomAccessFile.getChannel();
+      long position = 0;
+      for (int chunk = 0; chunk < bestTimeChunks.length; ++chunk) {
+        int chunkSize = Math.min(1 << chunkBits, size - (chunk << chunkBits));
+        // Mapping past the end of the file extends it without writing the new pages.
+        bestTimeChunks[chunk] = channel.map(FileChannel.MapMode.READ_WRITE, position, 4L * chunkSize)
+            .order(ByteOrder.nativeOrder()).asIntBuffer();
+        position += 4L * chunkSize;
+        previousWaypointChunks[chunk] = channel.map(FileChannel.MapMode.READ_WRITE, position, chunkSize);
+        position += chunkSize;
+      }
+    } finally {
+      // The mapped buffers stay valid after the file is deleted, and the space is released when
+      // they are garbage collected. Some systems can't delete mapped files until the JVM exits.
+      if (!file.delete()) {
+        file.deleteOnExit();
+      }
+    }
+  }
+
+  @Override
+  public int getBestTime(int index) {
+    return bestTimeChunks[index >>> chunkBits].get(index & chunkMask);
+  }
+
+  @Override
+  public void setBestTime(int index, int time) {
+    bestTimeChunks[index >>> chunkBits].put(index & chunkMask, time);
+  }
+
+  @Override
+  public int getPreviousWaypoint(int index) {
+    return previousWaypointChunks[index >>> chunkBits].get(index & chunkMask);
+  }
+
+  @Override
+  public void setPreviousWaypoint(int index, int waypointIndex) {
+    previousWaypointChunks[index >>> chunkBits].put(index & chunkMask, (byte) waypointIndex);
+  }
+
+  /**
+   * Drops the chunks, so that they are unmapped by the next garbage collection even if the table
+   * itself is still referenced. Using the table afterwards throws NullPointerException.
+   */
+  @Override
+  public void release() {
+    for (int chunk = 0; chunk < bestTimeChunks.length; ++chunk) {
+      bestTimeChunks[chunk] = null;
+      previousWaypointChunks[chunk] = null;
+    }
+  }
+
+  @Override
+  public void copyElements(RouteTable source, int sourceIndex, int index, int length) {
+    for (int offset = 0; offset < length; ++offset) {
+      setBestTime(index + offset, source.getBestTime(sourceIndex + offset));
+      setPreviousWaypoint(index + offset, source.getPreviousWaypoint(sourceIndex + offset));
+    }
+  }
+}
@@ -15,18 +15,23 @@ package com.google.sps.data;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.maps.DirectionsApi;
+import com.google.maps.DistanceMatrixApi;
 import com.google.maps.errors.ApiException;
 import com.google.maps.GeoApiContext;
 import com.google.maps.GeoApiContext.Builder;
 import com.google.maps.GeocodingApi;
 import com.google.maps.model.DirectionsLeg;
 import com.google.maps.model.DirectionsResult;
+import com.google.maps.model.DistanceMatrix;
+import com.google.maps.model.DistanceMatrixElement;
+import com.google.maps.model.DistanceMatrixElementStatus;
 import com.google.maps.model.Duration;
 import com.google.maps.model.GeocodingResult;
 import com.google.maps.model.TravelMode;
 import com.google.maps.model.LatLng;
 import com.google.maps.model.PlacesSearchResponse;
 import com.google.maps.model.PlacesSearchResult;
+import com.google.maps.PendingResult;
 import com.google.maps.PlacesApi;
 import com.google.maps.model.PlaceType;
 import java.io.IOException;
@@ -35,6 +40,9 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;  
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -43,7 +51,13 @@ import org.json.simple.parser.ParseException;
  * Class that creates a GeoApiContext variable and handles requests to maps API.
  */
 public class MapsRequest {
+  // The limits of a Distance Matrix API request.
+  public static final int MAX_MATRIX_POINTS = 25;
+  public static final int MAX_MATRIX_ELEMENTS = 100;
   private static GeoApiContext geoApiContext = null;
+  // Concurrent identical requests share one pending request instead of each paying quota and latency.
+  private static final RequestCoalescer<String, LatLng> geocodingRequests = new RequestCoalescer<>();
+  private static final RequestCoalescer<String, Integer> directionsRequests = new RequestCoalescer<>();
 
   private static String getApiKeyFromFile() throws IOException, ParseException {
     File apiKeyFile;
@@ -81,8 +95,17 @@ public class MapsRequest {
    * address String.
    */
   public static LatLng getLocationFromAddress(String address) throws IOException, ApiException, InterruptedException, DataNotFoundException {
-    GeocodingResult[] results =  GeocodingApi.geocode(getGeoApiContext(), address).await();
-    return getLocationFromResult(results);
+    return await(getLocationFromAddressAsync(address));
+  }
+
+  /**
+   * Starts a request to Geocoding API and returns a future that completes with the coordinates of
+   * the address, without blocking the calling thread. Callers asking for the same address at the
+   * same time share one request.
+   */
+  public static CompletableFuture<LatLng> getLocationFromAddressAsync(String address) throws IOException {
+    return geocodingRequests.get(address,
+        () -> toFuture(GeocodingApi.geocode(getGeoApiContext(), address), MapsRequest::getLocationFromResult));
   }
 
   public static LatLng getLocationFromResult(GeocodingResult[] results) throws DataNotFoundException {
@@ -99,12 +122,132 @@ public class MapsRequest {
    * TODO[ak47na]: add function parameter to support multiple transportation modes.
    */
   public static int getTimeInSecondsBetween2Points(Point a, Point b) throws ApiException, IOException, InterruptedException, DataNotFoundException{
-    DirectionsResult result = DirectionsApi.newRequest(getGeoApiContext())
-        .origin(new LatLng(a.latitude, a.longitude))
-        .destination(new LatLng(b.latitude, b.longitude))
-        .mode(TravelMode.DRIVING)
-        .await();
-    return getDurationFromDirectionsResult(result);
+    return await(getTimeInSecondsBetween2PointsAsync(a, b));
+  }
+
+  /**
+   * Starts a request to Directions API and returns a future that completes with the duration in
+   * seconds to get from point A to point B, without blocking the calling thread. Callers asking
+   * for the same points at the same time share one request.
+   */
+  public static CompletableFuture<Integer> getTimeInSecondsBetween2PointsAsync(Point a, Point b) throws IOException {
+    LatLng origin = new LatLng(a.latitude, a.longitude);
+    LatLng destination = new LatLng(b.latitude, b.longitude);
+    return directionsRequests.get(origin.toUrlValue() + ":" + destination.toUrlValue(),
+        () -> toFuture(DirectionsApi.newRequest(getGeoApiContext())
+            .origin(origin)
+            .destination(destination)
+            .mode(TravelMode.DRIVING),
+            MapsRequest::getDurationFromDirectionsResult));
+  }
+
+  /**
+   * Makes a request to Distance Matrix API and returns the matrix where the element [i][j] is the
+   * duration in seconds to get from origins[i] to destinations[j]. A request can have at most
+   * MAX_MATRIX_POINTS origins and destinations and MAX_MATRIX_ELEMENTS elements.
+   */
+  public static int[][] getTimeMatrixInSeconds(List<Point> origins, List<Point> destinations) throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    return await(getTimeMatrixInSecondsAsync(origins, destinations));
+  }
+
+  /**
+   * Starts a request to Distance Matrix API and returns a future that completes with the matrix of
+   * durations in seconds, without blocking the calling thread.
+   */
+  public static CompletableFuture<int[][]> getTimeMatrixInSecondsAsync(List<Point> origins, List<Point> destinations) throws IOException {
+    return toFuture(DistanceMatrixApi.newRequest(getGeoApiContext())
+        .origins(toLatLngs(origins))
+        .destinations(toLatLngs(destinations))
+        .mode(TravelMode.DRIVING),
+        result -> getTimesFromDistanceMatrix(result, origins.size(), destinations.size()));
+  }
+
+  private static int[][] getTimesFromDistanceMatrix(DistanceMatrix result, int numberOfOrigins, int numberOfDestinations) throws DataNotFoundException {
+    int[][] times = new int[numberOfOrigins][numberOfDestinations];
+    for (int origin = 0; origin < numberOfOrigins; ++origin) {
+      for (int destination = 0; destination < numberOfDestinations; ++destination) {
+        DistanceMatrixElement element = result.rows[origin].elements[destination];
+        if (element.status != DistanceMatrixElementStatus.OK) {
+          throw new DataNotFoundException("DistanceMatrixApi was unable to find a path between chosen points!");
+        }
+        times[origin][destination] = (int) element.duration.inSeconds;
+      }
+    }
+    return times;
+  }
+
+  /** Parses the result of a request to Maps API, failing with the exception it throws. */
+  interface ResultParser<T, R> {
+    R parse(T result) throws Exception;
+  }
+
+  /**
+   * Sends the request through the callback API of google-maps-services and returns a future that
+   * completes with the parsed result. The request is answered on the threads of the GeoApiContext,
+   * thus many requests can be in flight while the calling thread continues.
+   */
+  static <T, R> CompletableFuture<R> toFuture(PendingResult<T> request, ResultParser<T, R> parser) {
+    CompletableFuture<R> future = new CompletableFuture<>();
+    request.setCallback(new PendingResult.Callback<T>() {
+      @Override
+      public void onResult(T result) {
+        try {
+          future.complete(parser.parse(result));
+        } catch (Exception e) {
+          future.completeExceptionally(e);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable e) {
+        future.completeExceptionally(e);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Waits for the future and returns its result. If the future failed, the exception that caused
+   * the failure is rethrown as it would have been thrown by the blocking request.
+   */
+  public static <T> T await(CompletableFuture<T> future) throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof ApiException) {
+        throw (ApiException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof InterruptedException) {
+        throw (InterruptedException) cause;
+      }
+      if (cause instanceof DataNotFoundException) {
+        throw (DataNotFoundException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Returns the number of Geocoding and Directions requests that were not sent because an identical
+   * request was already in flight.
+   */
+  public static int getNumberOfSavedRequests() {
+    return geocodingRequests.getNumberOfSavedRequests() + directionsRequests.getNumberOfSavedRequests();
+  }
+
+  private static LatLng[] toLatLngs(List<Point> points) {
+    LatLng[] latLngs = new LatLng[points.size()];
+    for (int index = 0; index < points.size(); ++index) {
+      latLngs[index] = new LatLng(points.get(index).latitude, points.get(index).longitude);
+    }
+    return latLngs;
   }
 
   public static int getDurationFromDirectionsResult(DirectionsResult result) throws ApiException, IOException, InterruptedException, DataNotFoundException {
@@ -0,0 +1,58 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+
+/**
+ * Class that represents an order read from datastore: the books rented from a library and the
+ * point where they are delivered.
+ */
+public class Order {
+  // The keyString of the order in datastore.
+  private final String orderKey;
+  private final LibraryPoint library;
+  private final Point recipient;
+  private final List<String> bookIds;
+  private final OrderHandler.OrderStatus status;
+
+  public Order(String orderKey, LibraryPoint library, Point recipient, List<String> bookIds, OrderHandler.OrderStatus status) {
+    this.orderKey = orderKey;
+    this.library = library;
+    this.recipient = recipient;
+    this.bookIds = bookIds;
+    this.status = status;
+  }
+
+  public String getOrderKey() {
+    return orderKey;
+  }
+
+  public LibraryPoint getLibrary() {
+    return library;
+  }
+
+  public Point getRecipient() {
+    return recipient;
+  }
+
+  public List<String> getBookIds() {
+    return bookIds;
+  }
+
+  public OrderHandler.OrderStatus getStatus() {
+    return status;
+  }
+}
@@ -19,21 +19,35 @@ import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
 import com.google.maps.errors.ApiException;
+import com.google.maps.model.LatLng;
 import java.io.IOException;
 import java.lang.InterruptedException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Class used for creating and storing orders.
  */
 public class OrderHandler {
+  // Every order is its own entity group, and a cross-group transaction can use at most 25 groups.
+  private static final int MAX_ORDERS_PER_TRANSACTION = 25;
+  // Transactions that conflict with another claim of the same orders are tried again this many times.
+  private static final int MAX_TRANSACTION_ATTEMPTS = 3;
+  private static final Logger logger = Logger.getLogger(OrderHandler.class.getName());
   private PathFinder pathFinder;
   // The properties of orders in datastore:
   public enum OrderProperty {
@@ -108,6 +122,7 @@ public class OrderHandler {
     HashMap <LibraryPoint, ArrayList<String>> libraryBookIds = new HashMap<>();
     BooksManager booksManager = new BooksManager();
     List<String> outOfStookBookIds = new ArrayList<String>();
+    JourneyHandler journeyHandler = new JourneyHandler(pathFinder);
 
     for (String bookId : bookIds) {
       Entity closestLibrary = getClosestLibrary(
@@ -129,11 +144,21 @@ public class OrderHandler {
 
     for (LibraryPoint library : libraryBookIds.keySet()) {
       ArrayList<String> booksIds = libraryBookIds.get(library);
-      addOrderToDatastore(library, booksIds, userId, address);
+      String orderKey = addOrderToDatastore(library, booksIds, userId, address);
       boolean flag = booksManager.removeBooksFromLibrary(library, booksIds);
       if (flag == false) {
         throw new DataNotFoundException("No stock available!");
       }
+      // Couriers who already have a journey and spare time deliver the order without waiting for the
+      // next dispatch. The order and the stock are already stored, thus if this fails the order is
+      // left to the next dispatch instead of failing the request.
+      try {
+        journeyHandler.addOrderToOpenJourney(new Order(orderKey, library, address, booksIds, OrderStatus.ADDED));
+      } catch (ApiException | BadRequestException | ConcurrentModificationException | DataNotFoundException | IOException e) {
+        // ConcurrentModificationException is thrown when the order can't be claimed because of
+        // concurrent claims.
+        logger.log(Level.WARNING, "Unable to add order " + orderKey + " to an open journey", e);
+      }
     }
 
     return outOfStookBookIds;
@@ -148,21 +173,28 @@ public class OrderHandler {
       // There is no library, thus no library is closest to address.
       return null;
     }
+    List<Point> libraryPoints = new ArrayList<>();
+    for (Entity library : libraries) {
+      int libraryId = ((Number)library.getProperty(OrderProperty.LIBRARY_ID.label)).intValue();
+      libraryPoints.add(createLibraryPoint(libraryId));
+    }
+    // The times from address to all libraries are requested at once and waited for together, thus
+    // the search takes about as long as the slowest request.
+    List<CompletableFuture<Integer>> timesFromAddress = new ArrayList<>();
+    for (Point libraryPoint : libraryPoints) {
+      timesFromAddress.add(pathFinder.getTimeInSecondsBetweenPointsAsync(address, libraryPoint));
+    }
     int minTimeFromAddressToLibrary = Integer.MAX_VALUE;
     // The index in the libraries array of the closest library to address.
     int closestLibraryIndex = -1;
-    int index = 0;
-    for (Entity library : libraries) {
-      int libraryId = ((Number)library.getProperty(OrderProperty.LIBRARY_ID.label)).intValue();
-      int timeFromAddressToLibrary = pathFinder.getTimeInSecondsBetweenPoints(address,
-          createLibraryPoint(libraryId));
+    for (int index = 0; index < libraries.size(); ++index) {
+      int timeFromAddressToLibrary = MapsRequest.await(timesFromAddress.get(index));
 
       if (timeFromAddressToLibrary < minTimeFromAddressToLibrary) {
         minTimeFromAddressToLibrary = timeFromAddressToLibrary;
 
         closestLibraryIndex = index;
       }
-      ++ index;
     }
 
     if (closestLibraryIndex != -1) {
@@ -176,17 +208,45 @@ public class OrderHandler {
    * Returns the keyString of unassigned orders from datastore with the area set to area.
    */
   List<String> getAvailableOrders(int area) {
+    List<String> resultsKeyStrings = new ArrayList<>();
+    for (Entity order : queryAvailableOrders(area)) {
+      resultsKeyStrings.add(KeyFactory.keyToString(order.getKey()));
+    }
+    return resultsKeyStrings;
+  }
+
+  /**
+   * Returns the unassigned orders from datastore with the area set to area. The orders are created
+   * from the query results, so their properties are not read from datastore again.
+   */
+  List<Order> getAvailableOrdersInArea(int area) throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    List<Order> orders = new ArrayList<>();
+    for (Entity order : queryAvailableOrders(area)) {
+      orders.add(createOrderFromEntity(order));
+    }
+    return orders;
+  }
+
+  private List<Entity> queryAvailableOrders(int area) {
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     Query orderQuery = new Query("Order")
         .setFilter(new Query.FilterPredicate(OrderProperty.AREA.label, Query.FilterOperator.EQUAL, area))
         .setFilter(new Query.FilterPredicate(OrderProperty.STATUS.label, Query.FilterOperator.EQUAL, OrderStatus.ADDED.toString()));
+    return datastore.prepare(orderQuery).asList(FetchOptions.Builder.withDefaults());
+  }
 
-    List<Entity> results = datastore.prepare(orderQuery).asList(FetchOptions.Builder.withDefaults());
-    List <String> resultsKeyStrings = new ArrayList<>();
-    for (Entity order : results) {
-      resultsKeyStrings.add(KeyFactory.keyToString(order.getKey()));
-    }
-    return resultsKeyStrings;
+  /**
+   * Creates an Order with the properties of orderEntity.
+   */
+  private Order createOrderFromEntity(Entity orderEntity) throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    LibraryPoint library = new LibraryPoint((double) orderEntity.getProperty(OrderProperty.LIBRARY_LAT.label),
+        (double) orderEntity.getProperty(OrderProperty.LIBRARY_LNG.label),
+        ((Number) orderEntity.getProperty(OrderProperty.LIBRARY_ID.label)).intValue());
+    Point recipient = new Point((double) orderEntity.getProperty(OrderProperty.RECIPIENT_LAT.label),
+        (double) orderEntity.getProperty(OrderProperty.RECIPIENT_LNG.label));
+    return new Order(KeyFactory.keyToString(orderEntity.getKey()), library, recipient,
+        (List<String>) orderEntity.getProperty(OrderProperty.BOOK_IDS.label),
+        OrderStatus.valueOf((String) orderEntity.getProperty(OrderProperty.STATUS.label)));
   }
 
   /** 
@@ -199,16 +259,107 @@ public class OrderHandler {
   }
 
   /** 
-   * Updates the status property of orders with the keyString from orderKeys list to status.
-   * TODO[ak47na]: use transactions to update the state of orders.
+   * Updates the status property of orders with the keyString from orderKeys list to status. The
+   * orders are read and written with one batch call each, without checking their current status;
+   * orders are assigned to couriers with claimOrders.
    */
   public void updateStatusForOrders(List<String> orderKeys, String status) throws EntityNotFoundException {
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    List<Key> keys = new ArrayList<>();
     for (String orderKey : orderKeys) {
-      Entity order = datastore.get(KeyFactory.stringToKey(orderKey));
+      keys.add(KeyFactory.stringToKey(orderKey));
+    }
+    Map<Key, Entity> orders = datastore.get(keys);
+    for (Key key : keys) {
+      Entity order = orders.get(key);
+      if (order == null) {
+        throw new EntityNotFoundException(key);
+      }
       order.setProperty(OrderProperty.STATUS.label, status);
-      datastore.put(order);
     }
+    datastore.put(orders.values());
+  }
+
+  /**
+   * Assigns the orders with the keyString from orderKeys to a courier if all of them are still
+   * ADDED, and returns the keys of the orders that are not, i.e. that were claimed meanwhile by
+   * another courier or deleted. The claim is all or nothing: if any order is lost, none of them is
+   * assigned, so that the journey can be planned again without the lost orders. If a transaction
+   * keeps conflicting, the orders claimed so far are given back before the
+   * ConcurrentModificationException is rethrown.
+   */
+  public List<String> claimOrders(List<String> orderKeys) {
+    List<String> claimedOrderKeys = new ArrayList<>();
+    for (int first = 0; first < orderKeys.size(); first += MAX_ORDERS_PER_TRANSACTION) {
+      List<String> batch = orderKeys.subList(first, Math.min(first + MAX_ORDERS_PER_TRANSACTION, orderKeys.size()));
+      List<String> lostOrderKeys;
+      try {
+        lostOrderKeys = changeStatusInTransaction(batch, OrderStatus.ADDED, OrderStatus.ASSIGNED);
+      } catch (ConcurrentModificationException e) {
+        releaseOrders(claimedOrderKeys);
+        throw e;
+      }
+      if (!lostOrderKeys.isEmpty()) {
+        releaseOrders(claimedOrderKeys);
+        return lostOrderKeys;
+      }
+      claimedOrderKeys.addAll(batch);
+    }
+    return new ArrayList<>();
+  }
+
+  /**
+   * Gives back the orders with the keyString from orderKeys that were assigned by claimOrders.
+   * Nobody else can have changed them, since they were not ADDED anymore.
+   */
+  private void releaseOrders(List<String> orderKeys) {
+    for (int first = 0; first < orderKeys.size(); first += MAX_ORDERS_PER_TRANSACTION) {
+      changeStatusInTransaction(orderKeys.subList(first, Math.min(first + MAX_ORDERS_PER_TRANSACTION, orderKeys.size())),
+          OrderStatus.ASSIGNED, OrderStatus.ADDED);
+    }
+  }
+
+  /**
+   * Changes the status of the orders with the keyString from orderKeys from expectedStatus to
+   * status in one cross-group transaction, if all of them have expectedStatus. Returns the keys of
+   * the orders that don't exist or have another status, in which case nothing is changed.
+   */
+  List<String> changeStatusInTransaction(List<String> orderKeys, OrderStatus expectedStatus, OrderStatus status) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    List<Key> keys = new ArrayList<>();
+    for (String orderKey : orderKeys) {
+      keys.add(KeyFactory.stringToKey(orderKey));
+    }
+    ConcurrentModificationException conflict = null;
+    for (int attempt = 0; attempt < MAX_TRANSACTION_ATTEMPTS; ++attempt) {
+      Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        Map<Key, Entity> orders = datastore.get(transaction, keys);
+        List<String> changedOrderKeys = new ArrayList<>();
+        for (int order = 0; order < keys.size(); ++order) {
+          Entity orderEntity = orders.get(keys.get(order));
+          if (orderEntity == null || !expectedStatus.toString().equals(orderEntity.getProperty(OrderProperty.STATUS.label))) {
+            changedOrderKeys.add(orderKeys.get(order));
+          } else {
+            orderEntity.setProperty(OrderProperty.STATUS.label, status.toString());
+          }
+        }
+        if (changedOrderKeys.isEmpty()) {
+          datastore.put(transaction, orders.values());
+          transaction.commit();
+        }
+        return changedOrderKeys;
+      } catch (ConcurrentModificationException e) {
+        // Another transaction changed some of the orders after they were read, thus they are read
+        // again to find out which ones.
+        conflict = e;
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+    throw conflict;
   }
 
   /**
@@ -220,17 +371,21 @@ public class OrderHandler {
       throws IOException, ApiException, InterruptedException, DataNotFoundException, BadRequestException {
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
 
-    // Get the cart entity to get the list of books.
-    Query query = new Query("UserCart").setFilter(new Query.FilterPredicate("uid", Query.FilterOperator.EQUAL, uid));
-    PreparedQuery results = datastore.prepare(query);
-    Entity cartEntity = results.asSingleEntity();
     // Get the user entity for the address.
     Query queryUser = new Query("UserInfo")
         .setFilter(new Query.FilterPredicate("uid", Query.FilterOperator.EQUAL, uid));
     PreparedQuery resultsUser = datastore.prepare(queryUser);
     Entity userEntity = resultsUser.asSingleEntity();
-    
-    makeOrders(uid, Point.fromAddress((String) userEntity.getProperty("address")),
+    // The address is geocoded while the cart is read from datastore.
+    CompletableFuture<LatLng> location = MapsRequest.getLocationFromAddressAsync((String) userEntity.getProperty("address"));
+
+    // Get the cart entity to get the list of books.
+    Query query = new Query("UserCart").setFilter(new Query.FilterPredicate("uid", Query.FilterOperator.EQUAL, uid));
+    PreparedQuery results = datastore.prepare(query);
+    Entity cartEntity = results.asSingleEntity();
+
+    LatLng address = MapsRequest.await(location);
+    makeOrders(uid, new Point(address.lat, address.lng),
           (ArrayList<String>) cartEntity.getProperty("books"));
 
     // Add the ordered books to the ordering history of the user.
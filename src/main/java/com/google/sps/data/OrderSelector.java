@@ -0,0 +1,481 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class that chooses, out of all candidate orders of a delivery slot, a set of orders with as many
+ * orders as possible that can be delivered by a route of at most maxTime seconds. The orders are
+ * inserted in a single route, always picking the order that increases the route time the least,
+ * then the route is improved by local search: 2-opt and Or-opt moves that make room for more orders
+ * and exchanges of one selected order for two other ones.
+ */
+public class OrderSelector {
+  // The maximum number of times the local search goes over all selected orders.
+  private static final int MAX_IMPROVEMENT_ROUNDS = 10;
+  // The index used for the start point in routes, since it is not a waypoint.
+  private static final int START = -1;
+  private TravelTimeMatrix travelTimes;
+  private int maxTime;
+  private int maxWaypoints;
+  // libraries[order] and recipients[order] are the waypoint indices of the points of each order.
+  private int[] libraries;
+  private int[] recipients;
+  // The current route, which visits the waypoints route[0..routeLength - 1] in this order.
+  private int[] route;
+  private int routeLength;
+  private int routeTime;
+  // position[waypoint] is the position of the waypoint in route, or -1 if it isn't visited.
+  private int[] position;
+  // The number of selected orders that visit each waypoint.
+  private int[] ordersAtWaypoint;
+  private boolean[] isSelected;
+  // Orders that can't be selected, because a lower bound of the time of any route that delivers
+  // them is greater than maxTime.
+  private boolean[] isScreenedOut;
+  private int numberOfScreenedOutOrders;
+  // Orders that were assigned to another route, thus they can't be selected for this one.
+  private boolean[] isExcluded;
+
+  /**
+   * Creates a selector for routes that start at the start point of travelTimes, last at most
+   * maxTime seconds and visit at most maxWaypoints waypoints. travelTimes must be filled.
+   */
+  public OrderSelector(TravelTimeMatrix travelTimes, int maxTime, int maxWaypoints) {
+    this.travelTimes = travelTimes;
+    this.maxTime = maxTime;
+    this.maxWaypoints = maxWaypoints;
+  }
+
+  public int getNumberOfScreenedOutOrders() {
+    return numberOfScreenedOutOrders;
+  }
+
+  /**
+   * Returns the route of the last selection, as waypoint indices of travelTimes.
+   */
+  public int[] getRoute() {
+    return Arrays.copyOf(route, routeLength);
+  }
+
+  public int getRouteTime() {
+    return routeTime;
+  }
+
+  /**
+   * Returns the indices in orders of the selected orders in increasing order. Each order is a pair
+   * (library, recipient) of waypoint indices of travelTimes.
+   */
+  public List<Integer> selectOrders(List<Journey.Pair> orders) {
+    setOrders(orders);
+    insertCheapestOrders(-1);
+    improveSelection();
+    return getSelectedOrders();
+  }
+
+  /**
+   * Sets the orders that can be selected and screens out the ones that never fit in maxTime, without
+   * selecting any of them. Each order is a pair (library, recipient) of waypoint indices of
+   * travelTimes.
+   */
+  void setOrders(List<Journey.Pair> orders) {
+    int numberOfOrders = orders.size();
+    int numberOfWaypoints = travelTimes.getNumberOfWaypoints();
+    libraries = new int[numberOfOrders];
+    recipients = new int[numberOfOrders];
+    for (int order = 0; order < numberOfOrders; ++order) {
+      libraries[order] = orders.get(order).first;
+      recipients[order] = orders.get(order).second;
+    }
+    route = new int[numberOfWaypoints];
+    routeLength = 0;
+    routeTime = 0;
+    position = new int[numberOfWaypoints];
+    Arrays.fill(position, -1);
+    ordersAtWaypoint = new int[numberOfWaypoints];
+    isSelected = new boolean[numberOfOrders];
+    isScreenedOut = new boolean[numberOfOrders];
+    numberOfScreenedOutOrders = 0;
+    isExcluded = new boolean[numberOfOrders];
+    // Travel times don't always satisfy the triangle inequality, so the route of a single order can
+    // be slower than a route through other points. Every route that delivers an order enters both
+    // its waypoints, thus the fastest ways of entering them give a bound that holds for any route.
+    long[] fastestEntry = new long[numberOfWaypoints];
+    for (int waypoint = 0; waypoint < numberOfWaypoints; ++waypoint) {
+      fastestEntry[waypoint] = getTime(START, waypoint);
+      for (int from = 0; from < numberOfWaypoints; ++from) {
+        if (from != waypoint) {
+          fastestEntry[waypoint] = Math.min(fastestEntry[waypoint], getTime(from, waypoint));
+        }
+      }
+    }
+    for (int order = 0; order < numberOfOrders; ++order) {
+      long timeLowerBound = fastestEntry[libraries[order]];
+      if (recipients[order] != libraries[order]) {
+        timeLowerBound += fastestEntry[recipients[order]];
+      }
+      if (timeLowerBound > maxTime) {
+        isScreenedOut[order] = true;
+        ++numberOfScreenedOutOrders;
+      }
+    }
+  }
+
+  /**
+   * Improves the route with local search and inserts or exchanges orders while the number of
+   * selected orders increases.
+   */
+  void improveSelection() {
+    for (int round = 0; round < MAX_IMPROVEMENT_ROUNDS; ++round) {
+      improveRoute();
+      boolean isImproved = insertCheapestOrders(-1) > 0;
+      isImproved = exchangeOrders() || isImproved;
+      if (!isImproved) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Returns the indices of the selected orders in increasing order.
+   */
+  List<Integer> getSelectedOrders() {
+    List<Integer> selectedOrders = new ArrayList<>();
+    for (int order = 0; order < libraries.length; ++order) {
+      if (isSelected[order]) {
+        selectedOrders.add(order);
+      }
+    }
+    return selectedOrders;
+  }
+
+  /**
+   * Returns the indices of the orders that were neither selected, screened out nor excluded, sorted
+   * by the
+   * increase of the route time if they were added to the route of the last selection.
+   */
+  public List<Integer> getUnselectedOrders() {
+    List<Integer> unselectedOrders = new ArrayList<>();
+    long[] insertionCosts = new long[libraries.length];
+    for (int order = 0; order < libraries.length; ++order) {
+      if (isCandidate(order)) {
+        unselectedOrders.add(order);
+        insertionCosts[order] = getInsertionCost(order);
+      }
+    }
+    unselectedOrders.sort((first, second) -> Long.compare(insertionCosts[first], insertionCosts[second]));
+    return unselectedOrders;
+  }
+
+  /**
+   * Repeatedly inserts the order that increases the route time the least, as long as the route
+   * fits in maxTime. The order excludedOrder is never inserted. Returns the number of inserted
+   * orders.
+   */
+  private int insertCheapestOrders(int excludedOrder) {
+    int numberOfInsertedOrders = 0;
+    while (true) {
+      long bestCost = Long.MAX_VALUE;
+      int bestOrder = -1;
+      for (int order = 0; order < libraries.length; ++order) {
+        if (!isCandidate(order) || order == excludedOrder) {
+          continue;
+        }
+        long cost = getInsertionCost(order);
+        if (cost < bestCost) {
+          bestCost = cost;
+          bestOrder = order;
+        }
+      }
+      if (bestOrder == -1 || routeTime + bestCost > maxTime) {
+        return numberOfInsertedOrders;
+      }
+      insertOrder(bestOrder);
+      ++numberOfInsertedOrders;
+    }
+  }
+
+  /**
+   * Tries to replace each selected order with at least two other orders. Returns true if the number
+   * of selected orders increased.
+   */
+  private boolean exchangeOrders() {
+    boolean isImproved = false;
+    for (int order = 0; order < libraries.length; ++order) {
+      if (!isSelected[order]) {
+        continue;
+      }
+      int[] savedRoute = Arrays.copyOf(route, routeLength);
+      boolean[] savedSelection = Arrays.copyOf(isSelected, isSelected.length);
+      removeOrder(order);
+      if (insertCheapestOrders(order) >= 2) {
+        isImproved = true;
+      } else {
+        restore(savedRoute, savedSelection);
+      }
+    }
+    return isImproved;
+  }
+
+  /**
+   * Improves the order of the waypoints in the route with the moves of HeuristicRouteSolver, which
+   * keep the library of each selected order before its recipient.
+   */
+  private void improveRoute() {
+    List<Journey.Pair> restrictions = new ArrayList<>();
+    for (int order = 0; order < libraries.length; ++order) {
+      if (isSelected[order] && libraries[order] != recipients[order]) {
+        restrictions.add(new Journey.Pair(libraries[order], recipients[order]));
+      }
+    }
+    int[] improvedRoute = Arrays.copyOf(route, routeLength);
+    routeTime = new HeuristicRouteSolver().improveRoute(travelTimes, restrictions, improvedRoute);
+    System.arraycopy(improvedRoute, 0, route, 0, routeLength);
+    updatePositions(0);
+  }
+
+  /**
+   * Returns the increase of the route time if order is added to the route, or Long.MAX_VALUE if it
+   * can't be selected or the route wouldn't fit in maxTime with it.
+   */
+  long getFeasibleInsertionCost(int order) {
+    if (!isCandidate(order)) {
+      return Long.MAX_VALUE;
+    }
+    long cost = getInsertionCost(order);
+    return (cost == Long.MAX_VALUE || routeTime + cost > maxTime) ? Long.MAX_VALUE : cost;
+  }
+
+  /**
+   * Selects order, inserting its waypoints where the route time increases the least. The order must
+   * have a finite feasible insertion cost.
+   */
+  void selectOrder(int order) {
+    insertOrder(order);
+  }
+
+  boolean isScreenedOut(int order) {
+    return isScreenedOut[order];
+  }
+
+  /**
+   * Prevents order from being selected, because it was assigned to another route.
+   */
+  void excludeOrder(int order) {
+    isExcluded[order] = true;
+  }
+
+  private boolean isCandidate(int order) {
+    return !isSelected[order] && !isScreenedOut[order] && !isExcluded[order];
+  }
+
+  private int getTime(int from, int to) {
+    if (from == START) {
+      return travelTimes.getTimeFromStart(to);
+    }
+    return travelTimes.getTime(from, to);
+  }
+
+  /**
+   * Returns the increase of the route time if waypoint is inserted right before route[index], or at
+   * the end of the route if index is routeLength.
+   */
+  private long getWaypointInsertionCost(int waypoint, int index) {
+    int previous = (index == 0) ? START : route[index - 1];
+    long cost = getTime(previous, waypoint);
+    if (index < routeLength) {
+      cost += getTime(waypoint, route[index]) - getTime(previous, route[index]);
+    }
+    return cost;
+  }
+
+  /**
+   * Returns the minimum increase of the route time if order is added to the route, or
+   * Long.MAX_VALUE if it can't be added. Only the waypoints of the order that are not in the route
+   * yet are inserted, such that the library is visited before the recipient.
+   */
+  private long getInsertionCost(int order) {
+    return findInsertion(order, null);
+  }
+
+  /**
+   * Inserts the waypoints of order at the positions where the route time increases the least.
+   */
+  private void insertOrder(int order) {
+    int[] insertionIndices = new int[2];
+    routeTime += findInsertion(order, insertionIndices);
+    int library = libraries[order];
+    int recipient = recipients[order];
+    // Insert the recipient first, so that the index of the library is not shifted.
+    if (position[recipient] == -1) {
+      insertWaypoint(recipient, insertionIndices[1]);
+    }
+    if (position[library] == -1) {
+      insertWaypoint(library, insertionIndices[0]);
+    }
+    ++ordersAtWaypoint[library];
+    ++ordersAtWaypoint[recipient];
+    isSelected[order] = true;
+  }
+
+  /**
+   * Returns the minimum cost of inserting order in the route, or Long.MAX_VALUE if it's not
+   * possible. If insertionIndices is not null, it is set to the indices where the library and the
+   * recipient are inserted; both indices are relative to the current route.
+   */
+  private long findInsertion(int order, int[] insertionIndices) {
+    int library = libraries[order];
+    int recipient = recipients[order];
+    int newWaypoints = (position[library] == -1 ? 1 : 0) + (position[recipient] == -1 ? 1 : 0);
+    if (routeLength + newWaypoints > maxWaypoints) {
+      return Long.MAX_VALUE;
+    }
+    if (library == recipient) {
+      // The order is delivered at the library, so only one waypoint is visited.
+      return (position[library] != -1) ? 0 : findBestIndex(recipient, 0, routeLength, insertionIndices, 1);
+    }
+    if (position[library] != -1 && position[recipient] != -1) {
+      return (position[library] < position[recipient]) ? 0 : Long.MAX_VALUE;
+    }
+    if (position[library] != -1) {
+      return findBestIndex(recipient, position[library] + 1, routeLength, insertionIndices, 1);
+    }
+    if (position[recipient] != -1) {
+      return findBestIndex(library, 0, position[recipient], insertionIndices, 0);
+    }
+    // Neither waypoint is visited: the recipient is inserted either right after the library or
+    // before a later waypoint of the route. bestRecipientCost[index] is the minimum cost of
+    // inserting the recipient before any of route[index..routeLength - 1] or at the end.
+    long[] bestRecipientCost = new long[routeLength + 2];
+    int[] bestRecipientIndex = new int[routeLength + 2];
+    bestRecipientCost[routeLength + 1] = Long.MAX_VALUE;
+    for (int index = routeLength; index >= 0; --index) {
+      long cost = getWaypointInsertionCost(recipient, index);
+      if (cost <= bestRecipientCost[index + 1]) {
+        bestRecipientCost[index] = cost;
+        bestRecipientIndex[index] = index;
+      } else {
+        bestRecipientCost[index] = bestRecipientCost[index + 1];
+        bestRecipientIndex[index] = bestRecipientIndex[index + 1];
+      }
+    }
+    long bestCost = Long.MAX_VALUE;
+    for (int index = 0; index <= routeLength; ++index) {
+      int previous = (index == 0) ? START : route[index - 1];
+      long adjacentCost = getTime(previous, library) + getTime(library, recipient);
+      if (index < routeLength) {
+        adjacentCost += getTime(recipient, route[index]) - getTime(previous, route[index]);
+      }
+      if (adjacentCost < bestCost) {
+        bestCost = adjacentCost;
+        setInsertionIndices(insertionIndices, index, index);
+      }
+      if (index < routeLength) {
+        long separateCost = getWaypointInsertionCost(library, index) + bestRecipientCost[index + 1];
+        if (separateCost < bestCost) {
+          bestCost = separateCost;
+          setInsertionIndices(insertionIndices, index, bestRecipientIndex[index + 1]);
+        }
+      }
+    }
+    return bestCost;
+  }
+
+  /**
+   * Returns the minimum cost of inserting waypoint before one of route[from..to - 1] or before
+   * route[to], and stores the chosen index at insertionIndices[slot].
+   */
+  private long findBestIndex(int waypoint, int from, int to, int[] insertionIndices, int slot) {
+    long bestCost = Long.MAX_VALUE;
+    for (int index = from; index <= to; ++index) {
+      long cost = getWaypointInsertionCost(waypoint, index);
+      if (cost < bestCost) {
+        bestCost = cost;
+        if (insertionIndices != null) {
+          insertionIndices[slot] = index;
+        }
+      }
+    }
+    return bestCost;
+  }
+
+  private void setInsertionIndices(int[] insertionIndices, int libraryIndex, int recipientIndex) {
+    if (insertionIndices != null) {
+      insertionIndices[0] = libraryIndex;
+      insertionIndices[1] = recipientIndex;
+    }
+  }
+
+  private void insertWaypoint(int waypoint, int index) {
+    System.arraycopy(route, index, route, index + 1, routeLength - index);
+    route[index] = waypoint;
+    ++routeLength;
+    updatePositions(index);
+  }
+
+  /**
+   * Removes order from the selection and the waypoints that are not visited by other selected
+   * orders from the route.
+   */
+  private void removeOrder(int order) {
+    isSelected[order] = false;
+    for (int waypoint : new int[] {libraries[order], recipients[order]}) {
+      --ordersAtWaypoint[waypoint];
+      if (ordersAtWaypoint[waypoint] == 0) {
+        int index = position[waypoint];
+        System.arraycopy(route, index + 1, route, index, routeLength - index - 1);
+        --routeLength;
+        position[waypoint] = -1;
+        updatePositions(index);
+      }
+    }
+    routeTime = computeRouteTime();
+  }
+
+  private void restore(int[] savedRoute, boolean[] savedSelection) {
+    Arrays.fill(position, -1);
+    Arrays.fill(ordersAtWaypoint, 0);
+    routeLength = savedRoute.length;
+    System.arraycopy(savedRoute, 0, route, 0, routeLength);
+    updatePositions(0);
+    isSelected = savedSelection;
+    for (int order = 0; order < libraries.length; ++order) {
+      if (isSelected[order]) {
+        ++ordersAtWaypoint[libraries[order]];
+        ++ordersAtWaypoint[recipients[order]];
+      }
+    }
+    routeTime = computeRouteTime();
+  }
+
+  private void updatePositions(int fromIndex) {
+    for (int index = fromIndex; index < routeLength; ++index) {
+      position[route[index]] = index;
+    }
+  }
+
+  private int computeRouteTime() {
+    int time = 0;
+    int previous = START;
+    for (int index = 0; index < routeLength; ++index) {
+      time += getTime(previous, route[index]);
+      previous = route[index];
+    }
+    return time;
+  }
+}
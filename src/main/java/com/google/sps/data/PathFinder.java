@@ -17,7 +17,116 @@ package com.google.sps.data;
 import com.google.maps.errors.ApiException;
 import java.io.IOException;
 import java.lang.InterruptedException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 interface PathFinder {
   public int getTimeInSecondsBetweenPoints(Point a, Point b)  throws ApiException, IOException, InterruptedException, DataNotFoundException ;
+
+  /**
+   * Returns a future that completes with the time in seconds to get from point A to point B, so
+   * that callers can start many requests and wait for all of them once. PathFinders that can answer
+   * without blocking override it; by default the time is found on the calling thread.
+   */
+  public default CompletableFuture<Integer> getTimeInSecondsBetweenPointsAsync(Point a, Point b) {
+    CompletableFuture<Integer> future = new CompletableFuture<>();
+    try {
+      future.complete(getTimeInSecondsBetweenPoints(a, b));
+    } catch (ApiException | IOException | InterruptedException | DataNotFoundException | RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Returns the matrix where the element [i][j] is the time in seconds to get from origins[i] to
+   * destinations[j]. PathFinders that can find many travel times with one request override it; by
+   * default each travel time is found separately.
+   */
+  public default int[][] getTimeMatrix(List<Point> origins, List<Point> destinations) throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    int[][] times = new int[origins.size()][destinations.size()];
+    for (int origin = 0; origin < origins.size(); ++origin) {
+      for (int destination = 0; destination < destinations.size(); ++destination) {
+        times[origin][destination] = getTimeInSecondsBetweenPoints(origins.get(origin), destinations.get(destination));
+      }
+    }
+    return times;
+  }
+
+  /**
+   * Fills the elements of times that are not known, where times[i][j] is the time in seconds to get
+   * from origins[i] to destinations[j] and isKnown[i][j] tells if it is already known. Distance
+   * Matrix API bills every element, thus only the unknown elements are requested, in as few calls
+   * of getTimeMatrix as possible:
+   * - the origins whose times are all unknown, if more than one, are requested against all
+   *   destinations with one call,
+   *   also requesting the time from an origin to itself if it is a destination too;
+   * - the other origins are grouped by their set of unknown destinations and each group is requested
+   *   with one call.
+   * When a waypoint is added to a journey whose times are known, its row and its column are thus
+   * requested with two calls. Returns the number of filled elements.
+   */
+  public static int fillUnknownTimes(PathFinder pathFinder, List<Point> origins, List<Point> destinations, int[][] times, boolean[][] isKnown) throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    List<Integer> allDestinations = new ArrayList<>();
+    for (int destination = 0; destination < destinations.size(); ++destination) {
+      allDestinations.add(destination);
+    }
+    List<Integer> unknownOrigins = new ArrayList<>();
+    // Maps the unknown destinations of an origin to the origins that have the same ones.
+    LinkedHashMap<List<Integer>, List<Integer>> originsByUnknownDestinations = new LinkedHashMap<>();
+    for (int origin = 0; origin < origins.size(); ++origin) {
+      List<Integer> unknownDestinations = new ArrayList<>();
+      boolean isOriginUnknown = true;
+      for (int destination = 0; destination < destinations.size(); ++destination) {
+        if (!isKnown[origin][destination]) {
+          unknownDestinations.add(destination);
+        } else if (!origins.get(origin).equals(destinations.get(destination))) {
+          isOriginUnknown = false;
+        }
+      }
+      if (unknownDestinations.isEmpty()) {
+        continue;
+      }
+      // A single unknown time is not worth requesting the time from the origin to itself as well.
+      if (isOriginUnknown && unknownDestinations.size() > 1) {
+        unknownOrigins.add(origin);
+      } else {
+        originsByUnknownDestinations.computeIfAbsent(unknownDestinations, key -> new ArrayList<>()).add(origin);
+      }
+    }
+    int numberOfFilledTimes = 0;
+    if (!unknownOrigins.isEmpty()) {
+      numberOfFilledTimes += fillTimes(pathFinder, origins, destinations, unknownOrigins, allDestinations, times, isKnown);
+    }
+    for (Map.Entry<List<Integer>, List<Integer>> group : originsByUnknownDestinations.entrySet()) {
+      numberOfFilledTimes += fillTimes(pathFinder, origins, destinations, group.getValue(), group.getKey(), times, isKnown);
+    }
+    return numberOfFilledTimes;
+  }
+
+  /**
+   * Requests the times between the chosen origins and destinations with one call of getTimeMatrix
+   * and fills the ones that are not known. Returns the number of filled elements.
+   */
+  static int fillTimes(PathFinder pathFinder, List<Point> origins, List<Point> destinations, List<Integer> chosenOrigins, List<Integer> chosenDestinations, int[][] times, boolean[][] isKnown) throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    int[][] chosenTimes = pathFinder.getTimeMatrix(
+        chosenOrigins.stream().map(origins::get).collect(Collectors.toList()),
+        chosenDestinations.stream().map(destinations::get).collect(Collectors.toList()));
+    int numberOfFilledTimes = 0;
+    for (int row = 0; row < chosenOrigins.size(); ++row) {
+      for (int column = 0; column < chosenDestinations.size(); ++column) {
+        int origin = chosenOrigins.get(row);
+        int destination = chosenDestinations.get(column);
+        if (!isKnown[origin][destination]) {
+          times[origin][destination] = chosenTimes[row][column];
+          ++numberOfFilledTimes;
+        }
+      }
+    }
+    return numberOfFilledTimes;
+  }
 }
@@ -25,6 +25,7 @@ import java.util.ArrayList;
  * Class that represents points on the map using latitude and longitude coordinates.
  */
 public class Point {
+  private static final double EARTH_RADIUS_IN_METERS = 6371000;
   public double latitude;
   public double longitude;
 
@@ -66,6 +67,18 @@ public class Point {
     return value;
   }
 
+  /**
+   * Returns the straight-line distance in meters between this Point and point. The distance is
+   * approximated by projecting both points on a plane, which is accurate for points in the same
+   * city and doesn't need any request to Maps APIs.
+   */
+  public double getDistanceInMeters(Point point) {
+    double averageLatitude = Math.toRadians((this.latitude + point.latitude) / 2);
+    double latitudeDifference = Math.toRadians(this.latitude - point.latitude);
+    double longitudeDifference = Math.toRadians(this.longitude - point.longitude) * Math.cos(averageLatitude);
+    return EARTH_RADIUS_IN_METERS * Math.sqrt(latitudeDifference * latitudeDifference + longitudeDifference * longitudeDifference);
+  }
+
   /**
    * Returns the area of the point from its latitude and longitude.
    * TODO[ak47na]: change method to return different areas wrt point coordinates.
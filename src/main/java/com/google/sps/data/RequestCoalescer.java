@@ -0,0 +1,75 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class that lets concurrent callers asking for the same key share one pending request: while a
+ * request for a key is in flight, other callers get the same future instead of sending the request
+ * again. Once the request completes the key is forgotten, thus results are not cached; callers that
+ * come later send a new request.
+ */
+public class RequestCoalescer<K, V> {
+  private final ConcurrentHashMap<K, CompletableFuture<V>> pendingRequests = new ConcurrentHashMap<>();
+  private final AtomicInteger numberOfSentRequests = new AtomicInteger();
+  private final AtomicInteger numberOfSavedRequests = new AtomicInteger();
+
+  /** Starts a request and returns the future of its result. */
+  public interface Request<V> {
+    CompletableFuture<V> send() throws IOException;
+  }
+
+  /**
+   * Returns the future of the pending request for key, or sends the request if there is none. The
+   * returned future may be shared with other callers, thus it must not be cancelled or completed.
+   */
+  public CompletableFuture<V> get(K key, Request<V> request) throws IOException {
+    CompletableFuture<V> future = new CompletableFuture<>();
+    CompletableFuture<V> pendingRequest = pendingRequests.putIfAbsent(key, future);
+    if (pendingRequest != null) {
+      numberOfSavedRequests.incrementAndGet();
+      return pendingRequest;
+    }
+    numberOfSentRequests.incrementAndGet();
+    future.whenComplete((result, exception) -> pendingRequests.remove(key, future));
+    try {
+      request.send().whenComplete((result, exception) -> {
+        if (exception != null) {
+          future.completeExceptionally(exception);
+        } else {
+          future.complete(result);
+        }
+      });
+    } catch (IOException | RuntimeException e) {
+      // The callers that already share the future fail in the same way.
+      future.completeExceptionally(e);
+      throw e;
+    }
+    return future;
+  }
+
+  public int getNumberOfSentRequests() {
+    return numberOfSentRequests.get();
+  }
+
+  /** Returns the number of requests that were not sent because an identical one was in flight. */
+  public int getNumberOfSavedRequests() {
+    return numberOfSavedRequests.get();
+  }
+}
@@ -0,0 +1,171 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of solved routes that is shared between journeys. Journeys with the same start
+ * point, waypoints and restrictions have the same route, regardless of the order in which their
+ * waypoints were added, thus routes are stored by a canonical form of the journey. When the cache
+ * is full, the least recently used route is evicted.
+ */
+public class RouteCache {
+  // Coordinates are compared with the same precision as in Point.equals().
+  private static final double COORDINATE_SCALE = 100000.0;
+  private final int capacity;
+  private final LinkedHashMap<Key, RouteSolution> routes;
+  private int numberOfHits;
+  private int numberOfMisses;
+
+  public RouteCache(int capacity) {
+    this.capacity = capacity;
+    // Iterating in access order puts the least recently used route first.
+    this.routes = new LinkedHashMap<Key, RouteSolution>(16, 0.75f, /** accessOrder = */ true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, RouteSolution> eldest) {
+        return size() > RouteCache.this.capacity;
+      }
+    };
+    this.numberOfHits = 0;
+    this.numberOfMisses = 0;
+  }
+
+  public synchronized int getNumberOfHits() {
+    return numberOfHits;
+  }
+
+  public synchronized int getNumberOfMisses() {
+    return numberOfMisses;
+  }
+
+  public synchronized int size() {
+    return routes.size();
+  }
+
+  /**
+   * Returns the route stored for the journey described by key, with the waypoint indices of that
+   * journey, or null if there is none.
+   */
+  public synchronized RouteSolution get(Key key) {
+    RouteSolution canonicalRoute = routes.get(key);
+    if (canonicalRoute == null) {
+      ++numberOfMisses;
+      return null;
+    }
+    ++numberOfHits;
+    int[] canonicalOrder = canonicalRoute.getOrder();
+    int[] order = new int[canonicalOrder.length];
+    for (int position = 0; position < order.length; ++position) {
+      order[position] = key.waypointAtRank[canonicalOrder[position]];
+    }
+    return new RouteSolution(order, canonicalRoute.getTime());
+  }
+
+  /**
+   * Stores route, whose waypoint indices are the ones of the journey described by key.
+   */
+  public synchronized void put(Key key, RouteSolution route) {
+    int[] order = route.getOrder();
+    int[] canonicalOrder = new int[order.length];
+    for (int position = 0; position < order.length; ++position) {
+      canonicalOrder[position] = key.rankOfWaypoint[order[position]];
+    }
+    routes.put(key, new RouteSolution(canonicalOrder, route.getTime()));
+  }
+
+  /**
+   * Returns the key of the journey that starts at start, visits waypoints and satisfies
+   * restrictions. The waypoints are sorted by their quantized coordinates and the restrictions are
+   * rewritten with the positions of the waypoints in sorted order, then sorted as well.
+   */
+  public static Key createKey(Point start, List<Point> waypoints, List<Journey.Pair> restrictions) {
+    int numberOfWaypoints = waypoints.size();
+    long[] quantizedWaypoints = new long[numberOfWaypoints];
+    Integer[] waypointAtRank = new Integer[numberOfWaypoints];
+    for (int waypointIndex = 0; waypointIndex < numberOfWaypoints; ++waypointIndex) {
+      quantizedWaypoints[waypointIndex] = quantize(waypoints.get(waypointIndex));
+      waypointAtRank[waypointIndex] = waypointIndex;
+    }
+    Arrays.sort(waypointAtRank, (first, second) -> Long.compare(quantizedWaypoints[first], quantizedWaypoints[second]));
+    int[] rankOfWaypoint = new int[numberOfWaypoints];
+    for (int rank = 0; rank < numberOfWaypoints; ++rank) {
+      rankOfWaypoint[waypointAtRank[rank]] = rank;
+    }
+
+    long[] canonicalRestrictions = new long[restrictions.size()];
+    for (int index = 0; index < restrictions.size(); ++index) {
+      Journey.Pair restriction = restrictions.get(index);
+      canonicalRestrictions[index] = ((long) rankOfWaypoint[restriction.first] << 32) | rankOfWaypoint[restriction.second];
+    }
+    // Repeated restrictions don't change the route, so they are stored once.
+    canonicalRestrictions = Arrays.stream(canonicalRestrictions).sorted().distinct().toArray();
+
+    long[] canonicalForm = new long[2 + numberOfWaypoints + canonicalRestrictions.length];
+    canonicalForm[0] = quantize(start);
+    canonicalForm[1] = numberOfWaypoints;
+    for (int rank = 0; rank < numberOfWaypoints; ++rank) {
+      canonicalForm[2 + rank] = quantizedWaypoints[waypointAtRank[rank]];
+    }
+    System.arraycopy(canonicalRestrictions, 0, canonicalForm, 2 + numberOfWaypoints, canonicalRestrictions.length);
+    return new Key(canonicalForm, Arrays.stream(waypointAtRank).mapToInt(Integer::intValue).toArray(), rankOfWaypoint);
+  }
+
+  /**
+   * Returns the coordinates of point rounded as in Point.equals() and packed in a long.
+   */
+  private static long quantize(Point point) {
+    int latitude = (int) (COORDINATE_SCALE * point.latitude);
+    int longitude = (int) (COORDINATE_SCALE * point.longitude);
+    return ((long) latitude << 32) | (longitude & 0xffffffffL);
+  }
+
+  /**
+   * Canonical form of a journey, together with the mapping between the waypoint indices of the
+   * journey and the positions of the waypoints in the canonical form. Only the canonical form is
+   * used for equality.
+   */
+  public static class Key {
+    private final long[] canonicalForm;
+    private final int hash;
+    // waypointAtRank[rank] is the index in the journey of the waypoint with the given rank and
+    // rankOfWaypoint is its inverse.
+    private final int[] waypointAtRank;
+    private final int[] rankOfWaypoint;
+
+    private Key(long[] canonicalForm, int[] waypointAtRank, int[] rankOfWaypoint) {
+      this.canonicalForm = canonicalForm;
+      this.hash = Arrays.hashCode(canonicalForm);
+      this.waypointAtRank = waypointAtRank;
+      this.rankOfWaypoint = rankOfWaypoint;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (!(object instanceof Key)) {
+        return false;
+      }
+      return Arrays.equals(canonicalForm, ((Key) object).canonicalForm);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
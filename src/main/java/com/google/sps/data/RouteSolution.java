@@ -0,0 +1,38 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/**
+ * Class that represents a route found by a RouteSolver.
+ */
+public class RouteSolution {
+  // The indices of the waypoints in the order in which they are visited after the start point.
+  private int[] order;
+  // The number of seconds the route lasts.
+  private int time;
+
+  public RouteSolution(int[] order, int time) {
+    this.order = order;
+    this.time = time;
+  }
+
+  public int[] getOrder() {
+    return order;
+  }
+
+  public int getTime() {
+    return time;
+  }
+}
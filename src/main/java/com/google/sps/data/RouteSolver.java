@@ -0,0 +1,58 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+
+/**
+ * Interface for classes that find the order in which the waypoints of a journey are visited.
+ */
+interface RouteSolver {
+  /**
+   * Returns a route that starts at the start point of travelTimes, visits all its waypoints and
+   * satisfies all restrictions, or null if no such route was found. A restriction (a, b) means
+   * that waypoint a must be visited before waypoint b.
+   */
+  public RouteSolution solve(TravelTimeMatrix travelTimes, List<Journey.Pair> restrictions);
+
+  /**
+   * Returns true if a route that satisfies all restrictions and takes at most maxTime seconds was
+   * found. It is used when only the answer is needed, so it may stop before finding the best route.
+   */
+  public boolean hasRouteWithin(TravelTimeMatrix travelTimes, List<Journey.Pair> restrictions, int maxTime);
+
+  /**
+   * Called after the waypoint with index waypointIndex was removed from the journey, so the
+   * indices of the following waypoints decreased by one.
+   */
+  public void onWaypointRemoved(int waypointIndex);
+
+  /**
+   * Called after the restriction (first, second) was added to or removed from the journey.
+   */
+  public void onRestrictionChanged(int first, int second);
+
+  /**
+   * Returns a solver for a copy of the journey, which reuses the work done by this solver for the
+   * current waypoints and restrictions. Changing one of the solvers doesn't change the other one.
+   */
+  public RouteSolver copy();
+
+  /**
+   * Frees the memory held by the solver, which must not be used afterwards. Solvers that are not
+   * released free it when they are garbage collected.
+   */
+  public default void release() {}
+}
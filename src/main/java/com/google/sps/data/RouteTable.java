@@ -0,0 +1,40 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/**
+ * Interface for the tables of ExactRouteSolver. The element at index config * stride + lastWaypoint
+ * stores the minimum time of the routes that visit the waypoints of config and end in lastWaypoint,
+ * and the waypoint visited right before lastWaypoint on the fastest of them.
+ */
+interface RouteTable {
+  public int getBestTime(int index);
+
+  public void setBestTime(int index, int time);
+
+  public int getPreviousWaypoint(int index);
+
+  public void setPreviousWaypoint(int index, int waypointIndex);
+
+  /**
+   * Copies length elements of source starting at sourceIndex to this table starting at index.
+   */
+  public void copyElements(RouteTable source, int sourceIndex, int index, int length);
+
+  /**
+   * Frees the memory of the table, which must not be used afterwards.
+   */
+  public default void release() {}
+}
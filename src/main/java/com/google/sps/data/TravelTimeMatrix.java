@@ -0,0 +1,239 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import com.google.maps.errors.ApiException;
+import java.io.IOException;
+import java.lang.InterruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Class that stores the travel times between the start point of a journey and its waypoints, such
+ * that each pair of points is requested from the PathFinder at most once.
+ */
+public class TravelTimeMatrix {
+  // The value stored for pairs of points whose travel time has not been requested yet.
+  private static final int UNKNOWN_TIME = -1;
+  private static final int INITIAL_CAPACITY = 8;
+  private PathFinder pathFinder;
+  // points.get(0) is the start point and points.get(waypointIndex + 1) is the waypoint with index
+  // waypointIndex in the journey.
+  private List<Point> points;
+  // Flat array where times[from * capacity + to] is the time in seconds to get from points[from] to
+  // points[to] or UNKNOWN_TIME if it has not been requested yet.
+  private int[] times;
+  // The maximum number of points that fit in times without growing it.
+  private int capacity;
+  // The number of travel times requested from pathFinder.
+  private int numberOfLookups;
+
+  public TravelTimeMatrix(PathFinder pathFinder, Point start) {
+    this.pathFinder = pathFinder;
+    points = new ArrayList<>();
+    points.add(start);
+    capacity = INITIAL_CAPACITY;
+    times = new int[capacity * capacity];
+    Arrays.fill(times, UNKNOWN_TIME);
+    numberOfLookups = 0;
+  }
+
+  public int getNumberOfWaypoints() {
+    return points.size() - 1;
+  }
+
+  public int getNumberOfLookups() {
+    return numberOfLookups;
+  }
+
+  /**
+   * Adds point as the last waypoint, growing the matrix by one row and one column. The travel times
+   * to and from point are requested the next time fill() is called.
+   */
+  public void addWaypoint(Point point) {
+    if (points.size() == capacity) {
+      int newCapacity = 2 * capacity;
+      int[] newTimes = new int[newCapacity * newCapacity];
+      Arrays.fill(newTimes, UNKNOWN_TIME);
+      for (int from = 0; from < points.size(); ++from) {
+        System.arraycopy(times, from * capacity, newTimes, from * newCapacity, points.size());
+      }
+      times = newTimes;
+      capacity = newCapacity;
+    }
+    int newIndex = points.size();
+    points.add(point);
+    for (int index = 0; index <= newIndex; ++index) {
+      times[index * capacity + newIndex] = UNKNOWN_TIME;
+      times[newIndex * capacity + index] = UNKNOWN_TIME;
+    }
+  }
+
+  /**
+   * Removes the waypoint with index waypointIndex and its row and column from the matrix, keeping
+   * the known travel times between the remaining points.
+   */
+  public void removeWaypoint(int waypointIndex) {
+    int removedIndex = waypointIndex + 1;
+    int numberOfPoints = points.size();
+    for (int from = 0; from < numberOfPoints; ++from) {
+      // Shift the columns after removedIndex one position to the left.
+      System.arraycopy(times, from * capacity + removedIndex + 1, times, from * capacity + removedIndex,
+          numberOfPoints - removedIndex - 1);
+    }
+    // Shift the rows after removedIndex one position up.
+    System.arraycopy(times, (removedIndex + 1) * capacity, times, removedIndex * capacity,
+        (numberOfPoints - removedIndex - 1) * capacity);
+    points.remove(removedIndex);
+  }
+
+  /**
+   * Copies the travel times known by source between points that are also points of this matrix,
+   * so that fill() doesn't request them again.
+   */
+  public void copyKnownTimes(TravelTimeMatrix source) {
+    HashMap<Point, Integer> sourceIndices = new HashMap<>();
+    for (int index = 0; index < source.points.size(); ++index) {
+      sourceIndices.put(source.points.get(index), index);
+    }
+    int[] sourceIndex = new int[points.size()];
+    for (int index = 0; index < points.size(); ++index) {
+      sourceIndex[index] = sourceIndices.getOrDefault(points.get(index), -1);
+    }
+    for (int from = 0; from < points.size(); ++from) {
+      for (int to = 1; to < points.size(); ++to) {
+        if (from == to || sourceIndex[from] == -1 || sourceIndex[to] == -1
+            || times[from * capacity + to] != UNKNOWN_TIME) {
+          continue;
+        }
+        times[from * capacity + to] = source.times[sourceIndex[from] * source.capacity + sourceIndex[to]];
+      }
+    }
+  }
+
+  /**
+   * Requests the travel times that are not known yet with PathFinder.fillUnknownTimes. The start
+   * point is never a destination, thus for n waypoints at most n * n travel times are requested,
+   * and a waypoint added to known ones needs two calls of PathFinder.getTimeMatrix.
+   */
+  public void fill() throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    List<Point> destinations = points.subList(1, points.size());
+    int[][] matrix = new int[points.size()][destinations.size()];
+    boolean[][] isKnown = new boolean[points.size()][destinations.size()];
+    for (int from = 0; from < points.size(); ++from) {
+      for (int to = 1; to < points.size(); ++to) {
+        isKnown[from][to - 1] = from == to || times[from * capacity + to] != UNKNOWN_TIME;
+      }
+    }
+    int numberOfFilledTimes = PathFinder.fillUnknownTimes(pathFinder, points, destinations, matrix, isKnown);
+    if (numberOfFilledTimes == 0) {
+      return;
+    }
+    for (int from = 0; from < points.size(); ++from) {
+      for (int to = 1; to < points.size(); ++to) {
+        if (!isKnown[from][to - 1]) {
+          times[from * capacity + to] = matrix[from][to - 1];
+        }
+      }
+    }
+    numberOfLookups += numberOfFilledTimes;
+  }
+
+  /**
+   * Returns a lower bound of the time in seconds of any route that starts at the start point and
+   * visits all waypoints, computed in O(n^2). Each waypoint is entered exactly once, so the sum of
+   * the fastest ways to enter each waypoint is a bound. A route is also a spanning tree of the
+   * points, so the minimum spanning tree where each pair of points is weighted by its faster
+   * direction is a bound as well. The greater of the two bounds is returned. fill() must be called
+   * after the last waypoint was added.
+   */
+  public long getRouteTimeLowerBound() {
+    return Math.max(getFastestEntriesTime(), getMinimumSpanningTreeTime());
+  }
+
+  private long getFastestEntriesTime() {
+    long time = 0;
+    for (int to = 1; to < points.size(); ++to) {
+      int fastestEntry = Integer.MAX_VALUE;
+      for (int from = 0; from < points.size(); ++from) {
+        if (from != to) {
+          fastestEntry = Math.min(fastestEntry, times[from * capacity + to]);
+        }
+      }
+      time += fastestEntry;
+    }
+    return time;
+  }
+
+  /**
+   * Returns the time of the minimum spanning tree of all points computed with Prim's algorithm.
+   */
+  private long getMinimumSpanningTreeTime() {
+    int numberOfPoints = points.size();
+    boolean[] isInTree = new boolean[numberOfPoints];
+    // timeToTree[index] is the time of the fastest connection between points[index] and the tree.
+    int[] timeToTree = new int[numberOfPoints];
+    Arrays.fill(timeToTree, Integer.MAX_VALUE);
+    timeToTree[0] = 0;
+    long time = 0;
+    for (int step = 0; step < numberOfPoints; ++step) {
+      int closest = -1;
+      for (int index = 0; index < numberOfPoints; ++index) {
+        if (!isInTree[index] && (closest == -1 || timeToTree[index] < timeToTree[closest])) {
+          closest = index;
+        }
+      }
+      isInTree[closest] = true;
+      time += timeToTree[closest];
+      for (int index = 0; index < numberOfPoints; ++index) {
+        if (!isInTree[index]) {
+          timeToTree[index] = Math.min(timeToTree[index], getFasterDirectionTime(closest, index));
+        }
+      }
+    }
+    return time;
+  }
+
+  /**
+   * Returns the time of the faster direction between points[first] and points[second]. The start
+   * point is never a destination, thus only the time from it is known.
+   */
+  private int getFasterDirectionTime(int first, int second) {
+    if (first == 0) {
+      return times[second];
+    }
+    if (second == 0) {
+      return times[first];
+    }
+    return Math.min(times[first * capacity + second], times[second * capacity + first]);
+  }
+
+  /**
+   * Returns the time in seconds to get from the start point to the waypoint with index
+   * waypointIndex. fill() must be called after the last waypoint was added.
+   */
+  public int getTimeFromStart(int waypointIndex) {
+    return times[waypointIndex + 1];
+  }
+
+  /**
+   * Returns the time in seconds to get from waypoint with index from to waypoint with index to.
+   * fill() must be called after the last waypoint was added.
+   */
+  public int getTime(int from, int to) {
+    return times[(from + 1) * capacity + to + 1];
+  }
+}
@@ -0,0 +1,92 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.gson.Gson;
+import com.google.sps.data.CachingPathFinder;
+import com.google.sps.data.DeliverySlot;
+import com.google.sps.data.DeliverySlotManager;
+import com.google.sps.data.FirebaseAuthentication;
+import com.google.sps.data.FirebaseSingletonApp;
+import com.google.sps.data.JourneyHandler;
+import java.io.IOException;
+import java.util.HashMap;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that tells couriers whether their delivery request has been assigned a journey yet.
+ * Journeys are computed by DispatchServlet after the request is stored, thus the slotId returned
+ * by "/new-delivery-request" is used to poll for the result.
+ */
+@WebServlet("/delivery-status")
+public class DeliveryStatusServlet extends HttpServlet {
+  private FirebaseAuthentication firebaseAuth;
+
+  @Override
+  public void init() throws ServletException {
+    try {
+      setFirebaseAuth(new FirebaseAuthentication(FirebaseSingletonApp.getInstance()));
+    } catch (IOException e) {
+      System.out.println(e.getMessage());
+    }
+  }
+
+  public void setFirebaseAuth(FirebaseAuthentication firebaseAuth) {
+    this.firebaseAuth = firebaseAuth;
+  }
+
+  /**
+   * Displays the status of the delivery slot with id slotId and, once it has been dispatched, its
+   * journey in JSON format.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String userId = null;
+    try {
+      userId = firebaseAuth.getUserIdFromIdToken(request.getParameter("idToken"));
+    } catch (FirebaseAuthException e) {
+      response.sendError(HttpServletResponse.SC_UNAUTHORIZED, e.getMessage());
+      return;
+    }
+    String slotId = request.getParameter("slotId");
+    if (slotId == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The slotId was not sent!");
+      return;
+    }
+
+    DeliverySlot.Status status;
+    try {
+      status = new DeliverySlotManager().getDeliverySlotStatus(slotId, userId);
+    } catch (EntityNotFoundException | IllegalArgumentException e) {
+      // IllegalArgumentException is thrown for slotIds that aren't valid datastore keys.
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "The delivery slot doesn't exist!");
+      return;
+    }
+    HashMap<String, Object> deliveryStatus = new HashMap<>();
+    deliveryStatus.put("slotId", slotId);
+    deliveryStatus.put("status", status);
+    if (status == DeliverySlot.Status.DISPATCHED) {
+      deliveryStatus.put("journey", new JourneyHandler(CachingPathFinder.getGoogleMapsInstance()).getJourneyForDeliverySlot(slotId));
+    }
+    response.setContentType("application/json;");
+    response.getWriter().println(new Gson().toJson(deliveryStatus));
+  }
+}
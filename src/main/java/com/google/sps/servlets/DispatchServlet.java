@@ -0,0 +1,61 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.maps.errors.ApiException;
+import com.google.sps.data.BadRequestException;
+import com.google.sps.data.CachingPathFinder;
+import com.google.sps.data.DataNotFoundException;
+import com.google.sps.data.JourneyHandler;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Assigns the available orders to the pending delivery requests of the next hours, for all
+ * couriers at once. It is run periodically as a cron job, see cron.yaml.
+ */
+@WebServlet("/dispatch-deliveries")
+public class DispatchServlet extends HttpServlet {
+  // Pending delivery slots that overlap the next DISPATCH_WINDOW_HOURS hours are dispatched together.
+  private static final long DISPATCH_WINDOW_HOURS = 24;
+  // App Engine sets this header only for requests sent by the cron service.
+  private static final String CRON_HEADER = "X-Appengine-Cron";
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (!"true".equals(request.getHeader(CRON_HEADER))) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, "Deliveries are dispatched only by the cron job!");
+      return;
+    }
+    Date windowStart = new Date();
+    Date windowEnd = new Date(windowStart.getTime() + TimeUnit.HOURS.toMillis(DISPATCH_WINDOW_HOURS));
+    JourneyHandler journeyHandler = new JourneyHandler(CachingPathFinder.getGoogleMapsInstance());
+    int numberOfJourneys;
+    try {
+      numberOfJourneys = journeyHandler.dispatchDeliveryRequests(windowStart, windowEnd);
+    } catch (ApiException | BadRequestException | DataNotFoundException | EntityNotFoundException | InterruptedException e) {
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+      return;
+    }
+    response.setContentType("text/plain");
+    response.getWriter().println("Created " + numberOfJourneys + " journeys.");
+  }
+}
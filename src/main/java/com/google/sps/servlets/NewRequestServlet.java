@@ -157,19 +157,12 @@ public class NewRequestServlet extends HttpServlet {
       response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
       return;
     }
+    // The slot is stored as pending and gets its journey from DispatchServlet, which assigns orders
+    // to all couriers of the same time window together. The user is sent to the page of their slots,
+    // which shows the id of the new slot and whether it has been dispatched.
     slotManager.createDeliverySlot(deliverySlot);
     markUserAsCourier(userId);
-    JourneyHandler journeyHandler = new JourneyHandler(new GoogleMapsPathFinder());
-
-    try {
-      // Create journey for deliverySlot and add it to datastore.
-      journeyHandler.processDeliveryRequest(deliverySlot);
-      // TODO[ak47na]: Warn the user if no orders have been found for the current deliverySlot.
-    } catch (ApiException | BadRequestException | DataNotFoundException | EntityNotFoundException | InterruptedException e) {
-      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
-      return;
-    }
-    response.sendRedirect("/loggedIn.html");
+    response.sendRedirect("/deliverySlots.html?slotId=" + deliverySlot.getSlotId());
   }
 
   /**
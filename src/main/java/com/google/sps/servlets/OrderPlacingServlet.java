@@ -9,7 +9,7 @@ import com.google.sps.data.FirebaseSingletonApp;
 
 import java.io.IOException;
 import com.google.sps.data.OrderHandler;
-import com.google.sps.data.GoogleMapsPathFinder;
+import com.google.sps.data.CachingPathFinder;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -58,7 +58,7 @@ public class OrderPlacingServlet extends HttpServlet {
       response.sendError(HttpServletResponse.SC_UNAUTHORIZED, e.getMessage());
       return;
     }
-    OrderHandler orderHandler = new OrderHandler(new GoogleMapsPathFinder());
+    OrderHandler orderHandler = new OrderHandler(CachingPathFinder.getGoogleMapsInstance());
     try {
       orderHandler.placeOrder(uid);
     } catch (ApiException | InterruptedException | DataNotFoundException | BadRequestException e) {
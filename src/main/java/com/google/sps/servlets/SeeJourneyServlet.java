@@ -31,7 +31,7 @@ import com.google.firebase.FirebaseOptions;
 import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.sps.data.FirebaseAuthentication;
 import com.google.sps.data.FirebaseSingletonApp;
-import com.google.sps.data.GoogleMapsPathFinder;
+import com.google.sps.data.CachingPathFinder;
 import com.google.sps.data.JourneyHandler;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -73,7 +73,7 @@ public class SeeJourneyServlet extends HttpServlet {
     }
 
     // Return all journeys of the current user.
-    JourneyHandler journeyHandler = new JourneyHandler(new GoogleMapsPathFinder());
+    JourneyHandler journeyHandler = new JourneyHandler(CachingPathFinder.getGoogleMapsInstance());
     List<Entity> journeys = journeyHandler.getJourneysForUser(userId);
     Gson gson = new Gson();
     String json = gson.toJson(journeys);
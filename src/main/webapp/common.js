@@ -227,15 +227,53 @@ async function displayDeliverySlots() {
       deliverySlotElem = createUlElement(`Delivery slot with ID: ${slots[slot].slotId}`);
       slotTime = createListElement(`Starts at ${slots[slot].startTime} and ends at ${slots[slot].endTime}`);
       slotAddress = createListElement(`The starting point is ${slots[slot].startPoint.latitude}, ${slots[slot].startPoint.longitude}`);
+      // Pending slots get their journey from the dispatcher, which runs every few minutes.
+      slotStatus = createListElement(slots[slot].status == 'DISPATCHED' ?
+          'A journey has been assigned, see "See journeys"' : 'Waiting for a journey to be assigned');
       // Show the start, end times and starting point of delivery slot as list elements. 
       // TODO[ak47na]: improve the way delivery slots are shown (e.g. add line breaks between them).
       deliverySlotElem.appendChild(slotTime);
       deliverySlotElem.appendChild(slotAddress);
+      deliverySlotElem.appendChild(slotStatus);
       deliverySlotsContainer.appendChild(deliverySlotElem);
     }
   }).catch(error => {
     alert(error);
   });
+  // The delivery request form redirects here with the slotId of the new delivery slot.
+  const slotId = parseQueryString(window.location.search).slotId;
+  if (slotId) {
+    displayDeliveryStatus(decodeURIComponent(slotId), idToken);
+  }
+}
+
+// Pending delivery slots are checked again every STATUS_POLL_INTERVAL_MS, since the dispatcher
+// assigns their journeys every few minutes.
+const STATUS_POLL_INTERVAL_MS = 60000;
+
+/**
+ * Fetches the status of the delivery slot with id slotId from Java servlet and displays it on
+ * deliverySlots.html page, polling until a journey has been assigned to the slot.
+ */
+function displayDeliveryStatus(slotId, idToken) {
+  fetch(`/delivery-status?idToken=${idToken}&slotId=${encodeURIComponent(slotId)}`).then(response => {
+    if (response.status != 200) {
+      // There was an error when requesting the status from the server.
+      throw new Error('Unable to get the status of the delivery slot!');
+    } else {
+      return response.json();
+    }
+  }).then(deliveryStatus => {
+    const statusContainer = document.getElementById('delivery-status-container');
+    if (deliveryStatus.status == 'DISPATCHED') {
+      statusContainer.innerText = `A journey has been assigned to delivery slot ${slotId}, see "See journeys"`;
+    } else {
+      statusContainer.innerText = `Waiting for a journey to be assigned to delivery slot ${slotId}`;
+      setTimeout(() => displayDeliveryStatus(slotId, idToken), STATUS_POLL_INTERVAL_MS);
+    }
+  }).catch(error => {
+    alert(error);
+  });
 }
 
 /**
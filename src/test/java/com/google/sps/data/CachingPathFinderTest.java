@@ -0,0 +1,146 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.maps.errors.ApiException;
+import java.io.IOException;
+import java.lang.InterruptedException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that a CachingPathFinder requests each travel time once until it is evicted or expires.
+ */
+@RunWith(JUnit4.class)
+public class CachingPathFinderTest {
+  private static final long TIME_TO_LIVE_MILLIS = 1000;
+  private ManhattanDistancePathFinder manhattanPathFinder = new ManhattanDistancePathFinder();
+  // The number of travel times requested from manhattanPathFinder.
+  private AtomicInteger numberOfRequests;
+  private AtomicLong currentTimeMillis;
+  private PathFinder countingPathFinder;
+
+  @Before
+  public void setUp() {
+    numberOfRequests = new AtomicInteger(0);
+    currentTimeMillis = new AtomicLong(0);
+    countingPathFinder = (a, b) -> {
+      numberOfRequests.incrementAndGet();
+      return manhattanPathFinder.getTimeInSecondsBetweenPoints(a, b);
+    };
+  }
+
+  @Test
+  public void testTravelTimesAreRequestedOnce() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    CachingPathFinder pathFinder = new CachingPathFinder(countingPathFinder, 10, TIME_TO_LIVE_MILLIS, currentTimeMillis::get);
+    Point a = new Point(0.0001, 0.0002);
+    Point b = new Point(0.0005, 0.0003);
+    assertEquals(manhattanPathFinder.getTimeInSecondsBetweenPoints(a, b), pathFinder.getTimeInSecondsBetweenPoints(a, b));
+    // Points that are equal up to the precision of Point.equals() have the same travel time.
+    assertEquals(manhattanPathFinder.getTimeInSecondsBetweenPoints(a, b), pathFinder.getTimeInSecondsBetweenPoints(new Point(0.000101, 0.0002), b));
+    // The travel time in the other direction is requested separately.
+    assertEquals(manhattanPathFinder.getTimeInSecondsBetweenPoints(b, a), pathFinder.getTimeInSecondsBetweenPoints(b, a));
+
+    assertEquals(2, numberOfRequests.get());
+    assertEquals(1, pathFinder.getNumberOfHits());
+    assertEquals(2, pathFinder.getNumberOfMisses());
+    assertEquals(2, pathFinder.size());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedTravelTimeIsEvicted() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    CachingPathFinder pathFinder = new CachingPathFinder(countingPathFinder, 2, TIME_TO_LIVE_MILLIS, currentTimeMillis::get);
+    Point start = new Point(0, 0);
+    Point a = new Point(0.0001, 0.0002);
+    Point b = new Point(0.0005, 0.0003);
+    Point c = new Point(0.0004, 0.0007);
+    pathFinder.getTimeInSecondsBetweenPoints(start, a);
+    pathFinder.getTimeInSecondsBetweenPoints(start, b);
+    pathFinder.getTimeInSecondsBetweenPoints(start, a);
+    // The travel time to b is the least recently used one, thus it is evicted.
+    pathFinder.getTimeInSecondsBetweenPoints(start, c);
+    pathFinder.getTimeInSecondsBetweenPoints(start, a);
+    pathFinder.getTimeInSecondsBetweenPoints(start, b);
+
+    assertEquals(4, numberOfRequests.get());
+    assertEquals(2, pathFinder.getNumberOfHits());
+    assertEquals(2, pathFinder.getNumberOfEvictions());
+    assertEquals(2, pathFinder.size());
+  }
+
+  @Test
+  public void testExpiredTravelTimeIsRequestedAgain() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    CachingPathFinder pathFinder = new CachingPathFinder(countingPathFinder, 10, TIME_TO_LIVE_MILLIS, currentTimeMillis::get);
+    Point a = new Point(0.0001, 0.0002);
+    Point b = new Point(0.0005, 0.0003);
+    pathFinder.getTimeInSecondsBetweenPoints(a, b);
+    currentTimeMillis.set(TIME_TO_LIVE_MILLIS - 1);
+    pathFinder.getTimeInSecondsBetweenPoints(a, b);
+    assertEquals(1, numberOfRequests.get());
+
+    currentTimeMillis.set(TIME_TO_LIVE_MILLIS);
+    pathFinder.getTimeInSecondsBetweenPoints(a, b);
+    assertEquals(2, numberOfRequests.get());
+    assertEquals(1, pathFinder.getNumberOfExpirations());
+    assertEquals(0, pathFinder.getNumberOfEvictions());
+  }
+
+  @Test
+  public void testTimeMatrixRequestsOnlyUnknownTimes() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    CachingPathFinder pathFinder = new CachingPathFinder(countingPathFinder, 10, TIME_TO_LIVE_MILLIS, currentTimeMillis::get);
+    Point a = new Point(0.0001, 0.0002);
+    Point b = new Point(0.0005, 0.0003);
+    Point c = new Point(0.0004, 0.0007);
+    pathFinder.getTimeInSecondsBetweenPoints(a, b);
+    pathFinder.getTimeInSecondsBetweenPoints(a, c);
+
+    // Only the row of b has unknown times.
+    int[][] times = pathFinder.getTimeMatrix(Arrays.asList(a, b), Arrays.asList(b, c));
+    for (int origin = 0; origin < 2; ++origin) {
+      for (int destination = 0; destination < 2; ++destination) {
+        assertEquals(manhattanPathFinder.distance(Arrays.asList(a, b).get(origin), Arrays.asList(b, c).get(destination)), times[origin][destination]);
+      }
+    }
+    assertEquals(4, numberOfRequests.get());
+    assertEquals(4, pathFinder.size());
+    pathFinder.getTimeMatrix(Arrays.asList(a, b), Arrays.asList(b, c));
+    assertEquals(4, numberOfRequests.get());
+  }
+
+  @Test
+  public void testAsyncTimesAreCached() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    CachingPathFinder pathFinder = new CachingPathFinder(countingPathFinder, 10, TIME_TO_LIVE_MILLIS, currentTimeMillis::get);
+    Point a = new Point(0.0001, 0.0002);
+    Point b = new Point(0.0005, 0.0003);
+    assertEquals(manhattanPathFinder.distance(a, b), (int) MapsRequest.await(pathFinder.getTimeInSecondsBetweenPointsAsync(a, b)));
+    assertEquals(1, numberOfRequests.get());
+
+    // The time found asynchronously is cached for both kinds of lookups.
+    CompletableFuture<Integer> cachedTime = pathFinder.getTimeInSecondsBetweenPointsAsync(a, b);
+    assertTrue(cachedTime.isDone());
+    assertEquals(manhattanPathFinder.distance(a, b), (int) cachedTime.join());
+    assertEquals(manhattanPathFinder.distance(a, b), pathFinder.getTimeInSecondsBetweenPoints(a, b));
+    assertEquals(1, numberOfRequests.get());
+    assertEquals(2, pathFinder.getNumberOfHits());
+  }
+}
@@ -0,0 +1,160 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.maps.errors.ApiException;
+import java.io.IOException;
+import java.lang.InterruptedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static com.google.appengine.api.datastore.FetchOptions.Builder.withDefaults;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that a DatastorePathFinder keeps travel times in datastore until they are too old.
+ */
+@RunWith(JUnit4.class)
+public class DatastorePathFinderTest {
+  private static final long MAX_AGE_MILLIS = 1000;
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+  private ManhattanDistancePathFinder manhattanPathFinder = new ManhattanDistancePathFinder();
+  // The number of travel times requested from manhattanPathFinder.
+  private AtomicInteger numberOfRequests;
+  private AtomicLong currentTimeMillis;
+  private PathFinder countingPathFinder;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    numberOfRequests = new AtomicInteger(0);
+    currentTimeMillis = new AtomicLong(0);
+    countingPathFinder = (a, b) -> {
+      numberOfRequests.incrementAndGet();
+      return manhattanPathFinder.getTimeInSecondsBetweenPoints(a, b);
+    };
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void testTravelTimesOutliveThePathFinder() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Point a = new Point(0.0001, 0.0002);
+    Point b = new Point(0.0005, 0.0003);
+    DatastorePathFinder pathFinder = new DatastorePathFinder(countingPathFinder, MAX_AGE_MILLIS, currentTimeMillis::get);
+    assertEquals(manhattanPathFinder.getTimeInSecondsBetweenPoints(a, b), pathFinder.getTimeInSecondsBetweenPoints(a, b));
+    assertEquals(manhattanPathFinder.getTimeInSecondsBetweenPoints(b, a), pathFinder.getTimeInSecondsBetweenPoints(b, a));
+
+    // A new path finder, e.g. on a new instance, finds the stored travel times.
+    DatastorePathFinder newPathFinder = new DatastorePathFinder(countingPathFinder, MAX_AGE_MILLIS, currentTimeMillis::get);
+    assertEquals(manhattanPathFinder.getTimeInSecondsBetweenPoints(a, b), newPathFinder.getTimeInSecondsBetweenPoints(a, b));
+    assertEquals(manhattanPathFinder.getTimeInSecondsBetweenPoints(b, a), newPathFinder.getTimeInSecondsBetweenPoints(new Point(0.000501, 0.0003), a));
+    assertEquals(2, numberOfRequests.get());
+    assertEquals(2, newPathFinder.getNumberOfHits());
+    assertEquals(0, newPathFinder.getNumberOfMisses());
+    assertEquals(2, DatastoreServiceFactory.getDatastoreService().prepare(new Query("TravelTime")).countEntities(withDefaults()));
+  }
+
+  @Test
+  public void testOldTravelTimesAreRequestedAgain() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Point a = new Point(0.0001, 0.0002);
+    Point b = new Point(0.0005, 0.0003);
+    DatastorePathFinder pathFinder = new DatastorePathFinder(countingPathFinder, MAX_AGE_MILLIS, currentTimeMillis::get);
+    pathFinder.getTimeInSecondsBetweenPoints(a, b);
+    currentTimeMillis.set(MAX_AGE_MILLIS - 1);
+    pathFinder.getTimeInSecondsBetweenPoints(a, b);
+    assertEquals(1, numberOfRequests.get());
+
+    currentTimeMillis.set(MAX_AGE_MILLIS);
+    pathFinder.getTimeInSecondsBetweenPoints(a, b);
+    assertEquals(2, numberOfRequests.get());
+    // The travel time is stored again with the new update time.
+    currentTimeMillis.set(2 * MAX_AGE_MILLIS - 1);
+    pathFinder.getTimeInSecondsBetweenPoints(a, b);
+    assertEquals(2, numberOfRequests.get());
+    assertEquals(2, pathFinder.getNumberOfMisses());
+  }
+
+  @Test
+  public void testLargeTimeMatrixIsStoredInBatches() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    // 40 * 30 travel times don't fit in a single batch get or put.
+    List<Point> origins = new ArrayList<>();
+    for (int index = 0; index < 40; ++index) {
+      origins.add(new Point(0.001 * index, 0.0002));
+    }
+    List<Point> destinations = new ArrayList<>();
+    for (int index = 0; index < 30; ++index) {
+      destinations.add(new Point(0.0003, 0.001 * index + 0.0005));
+    }
+    DatastorePathFinder pathFinder = new DatastorePathFinder(countingPathFinder, MAX_AGE_MILLIS, currentTimeMillis::get);
+    pathFinder.getTimeMatrix(origins, destinations);
+    assertEquals(40 * 30, numberOfRequests.get());
+    assertEquals(40 * 30, DatastoreServiceFactory.getDatastoreService().prepare(new Query("TravelTime")).countEntities(withDefaults()));
+
+    DatastorePathFinder newPathFinder = new DatastorePathFinder(countingPathFinder, MAX_AGE_MILLIS, currentTimeMillis::get);
+    int[][] times = newPathFinder.getTimeMatrix(origins, destinations);
+    assertEquals(40 * 30, numberOfRequests.get());
+    assertEquals(40 * 30, newPathFinder.getNumberOfHits());
+    assertEquals(manhattanPathFinder.getTimeInSecondsBetweenPoints(origins.get(39), destinations.get(29)), times[39][29]);
+  }
+
+  @Test
+  public void testAsyncTimeIsStoredFromOtherThread() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Point a = new Point(0.0001, 0.0002);
+    Point b = new Point(0.0005, 0.0003);
+    // Completes on a thread without App Engine environment, as the Maps client does.
+    PathFinder asyncPathFinder = new PathFinder() {
+      @Override
+      public int getTimeInSecondsBetweenPoints(Point a, Point b) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public CompletableFuture<Integer> getTimeInSecondsBetweenPointsAsync(Point a, Point b) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        new Thread(() -> {
+          numberOfRequests.incrementAndGet();
+          future.complete(manhattanPathFinder.distance(a, b));
+        }).start();
+        return future;
+      }
+    };
+    DatastorePathFinder pathFinder = new DatastorePathFinder(asyncPathFinder, MAX_AGE_MILLIS, currentTimeMillis::get);
+    assertEquals(manhattanPathFinder.distance(a, b), (int) MapsRequest.await(pathFinder.getTimeInSecondsBetweenPointsAsync(a, b)));
+
+    DatastorePathFinder newPathFinder = new DatastorePathFinder(asyncPathFinder, MAX_AGE_MILLIS, currentTimeMillis::get);
+    CompletableFuture<Integer> storedTime = newPathFinder.getTimeInSecondsBetweenPointsAsync(a, b);
+    assertTrue(storedTime.isDone());
+    assertEquals(manhattanPathFinder.distance(a, b), (int) storedTime.join());
+    assertEquals(1, numberOfRequests.get());
+    assertEquals(1, newPathFinder.getNumberOfHits());
+  }
+}
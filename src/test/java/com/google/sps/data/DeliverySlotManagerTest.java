@@ -41,6 +41,8 @@ import org.junit.runners.JUnit4;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests that delivery slots are added to 
@@ -100,6 +102,42 @@ public class DeliverySlotManagerTest {
     assertEquals(deliverySlot.getSlotId(), KeyFactory.keyToString(deliverySlotRequest.getKey()));
   }
 
+  @Test
+  public void testDeliverySlotStatus() throws ApiException, IOException, InterruptedException, BadRequestException, DataNotFoundException, EntityNotFoundException {
+    DeliverySlotManager slotManager = new DeliverySlotManager();
+    DeliverySlot deliverySlot = new DeliverySlot(new Date(2020, 9, 26), 0, 3600000, "user0");
+    deliverySlot.setStartPoint(0.0, 0.0);
+    slotManager.createDeliverySlot(deliverySlot);
+    assertEquals(DeliverySlot.Status.PENDING, slotManager.getDeliverySlotStatus(deliverySlot.getSlotId(), "user0"));
+    assertEquals(DeliverySlot.Status.PENDING, slotManager.getUsersDeliverySlotRequests("user0").get(0).getStatus());
+
+    assertTrue(slotManager.markDeliverySlotAsDispatched(deliverySlot.getSlotId(), new Entity("Journey")));
+    assertEquals(DeliverySlot.Status.DISPATCHED, slotManager.getDeliverySlotStatus(deliverySlot.getSlotId(), "user0"));
+    assertEquals(DeliverySlot.Status.DISPATCHED, slotManager.getUsersDeliverySlotRequests("user0").get(0).getStatus());
+  }
+
+  @Test
+  public void testDeliverySlotIsDispatchedOnce() throws ApiException, IOException, InterruptedException, BadRequestException, DataNotFoundException, EntityNotFoundException {
+    DeliverySlotManager slotManager = new DeliverySlotManager();
+    DeliverySlot deliverySlot = new DeliverySlot(new Date(2020, 9, 26), 0, 3600000, "user0");
+    deliverySlot.setStartPoint(0.0, 0.0);
+    slotManager.createDeliverySlot(deliverySlot);
+    assertTrue(slotManager.markDeliverySlotAsDispatched(deliverySlot.getSlotId(), new Entity("Journey")));
+    // A second dispatch of the same slot, e.g. by an overlapping run, stores no journey.
+    assertFalse(slotManager.markDeliverySlotAsDispatched(deliverySlot.getSlotId(), new Entity("Journey")));
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    assertEquals(1, ds.prepare(new Query("Journey")).countEntities(FetchOptions.Builder.withDefaults()));
+  }
+
+  @Test(expected = EntityNotFoundException.class)
+  public void testDeliverySlotStatusOfOtherUser() throws ApiException, IOException, InterruptedException, BadRequestException, DataNotFoundException, EntityNotFoundException {
+    DeliverySlotManager slotManager = new DeliverySlotManager();
+    DeliverySlot deliverySlot = new DeliverySlot(new Date(2020, 9, 26), 0, 3600000, "user0");
+    deliverySlot.setStartPoint(0.0, 0.0);
+    slotManager.createDeliverySlot(deliverySlot);
+    slotManager.getDeliverySlotStatus(deliverySlot.getSlotId(), "user1");
+  }
+
   @Test(expected = BadRequestException.class)
   public void testCreateSlotInvalidDate() throws IOException, BadRequestException {
     DeliverySlotManager slotManager = new DeliverySlotManager();
@@ -32,6 +32,7 @@ import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 import org.junit.Assert;
 import org.junit.Before;
@@ -131,6 +132,8 @@ public class DeliverySystemTest {
     Journey journey = deliverySystem.createJourneyForDeliveryRequest(deliverySlot);
     // Test that no orders are taken because the duration of the timeslot is very short.
     assertEquals(0, journey.getNumberOfWaypoints());
+    // All orders are rejected without solving the journey.
+    assertEquals(3, deliverySystem.getNumberOfScreenedOutOrders());
   }
 
   @Test
@@ -152,6 +155,89 @@ public class DeliverySystemTest {
     assertEquals(Arrays.asList(courierStops.get(0), courierStops.get(1), courierStops.get(2)), journey.findOptimalOrderForWaypoints());
   }
 
+  @Test
+  public void testOrdersAreSharedBetweenCouriers() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    LibraryPoint firstLibrary = new LibraryPoint(0.0008, 0.0001, 2);
+    Point firstRecipient = new Point(0.0009, 0.0002);
+    LibraryPoint secondLibrary = new LibraryPoint(0, 0.0005, 3);
+    Point secondRecipient = new Point(0, 0.0006);
+    String firstOrderKey = orderHandler.addOrderToDatastore(firstLibrary, Arrays.asList("buc0AAAAMAAJ"), "user0", firstRecipient);
+    String secondOrderKey = orderHandler.addOrderToDatastore(secondLibrary, Arrays.asList("zyTCAlFPjgYC"), "user0", secondRecipient);
+
+    // The first courier has time for either order, but not for both, and the second courier has
+    // time only for the first order.
+    Point firstStart = new Point(0.0006, 0);
+    Point secondStart = new Point(0.001, 0);
+    long firstSlotSeconds = pathFinder.distance(firstStart, secondLibrary) + pathFinder.distance(secondLibrary, secondRecipient);
+    long secondSlotSeconds = pathFinder.distance(secondStart, firstLibrary) + pathFinder.distance(firstLibrary, firstRecipient);
+    DeliverySlot firstSlot = new DeliverySlot(new Date(2020, 9, 26), 0, firstSlotSeconds * 1000, "user1");
+    firstSlot.setStartPoint(firstStart.latitude, firstStart.longitude);
+    DeliverySlot secondSlot = new DeliverySlot(new Date(2020, 9, 26), 0, secondSlotSeconds * 1000, "user2");
+    secondSlot.setStartPoint(secondStart.latitude, secondStart.longitude);
+
+    // On its own, the first courier takes the cheaper first order, which leaves nothing for the
+    // second courier.
+    assertEquals(Arrays.asList(firstOrderKey), deliverySystem.createJourneyForDeliveryRequest(firstSlot).getOrders());
+    // Together, each courier gets one order.
+    List<Journey> journeys = deliverySystem.createJourneysForDeliveryRequests(Arrays.asList(firstSlot, secondSlot));
+    assertEquals(Arrays.asList(secondOrderKey), journeys.get(0).getOrders());
+    assertEquals(Arrays.asList(firstOrderKey), journeys.get(1).getOrders());
+  }
+
+  @Test
+  public void testOnlyNearestOrdersAreConsidered() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    createOrder(courierStops.get(1), courierStops.get(2), Arrays.asList("buc0AAAAMAAJ", "zyTCAlFPjgYC"), "user0", /** addOrderKey = */ true);
+    createOrder(courierStops.get(3), courierStops.get(5), Arrays.asList("buc0AAAAMAAJ", "zyTCAlFPjgYC"), "user0", /** addOrderKey = */ false);
+    createOrder(courierStops.get(3), courierStops.get(4), Arrays.asList("buc0AAAAMAAJ", "zyTCAlFPjgYC"), "user0", /** addOrderKey = */ true);
+
+    DeliverySlot deliverySlot = new DeliverySlot(new Date(2020, 9, 26), 0, 3600000, "user0");
+    deliverySlot.setStartPoint(-0.0001, 0);
+    deliverySystem.setMaxCandidateOrdersPerCourier(2);
+    Journey journey = deliverySystem.createJourneyForDeliveryRequest(deliverySlot);
+    // The slot fits all orders, but the one with the farthest recipient is not a candidate.
+    assertEquals(4, journey.getNumberOfWaypoints());
+    assertEquals(Arrays.asList(courierStops.get(0), courierStops.get(1), courierStops.get(2), courierStops.get(3),
+        courierStops.get(4)), journey.findOptimalOrderForWaypoints());
+  }
+
+  @Test
+  public void testSpeculativeEvaluationMatchesSequentialEvaluation() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    Random random = new Random(17);
+    for (int order = 0; order < 8; ++order) {
+      orderHandler.addOrderToDatastore(new LibraryPoint(random.nextInt(30) * 0.0001, random.nextInt(30) * 0.0001, order),
+          Arrays.asList("buc0AAAAMAAJ"), "user0", new Point(random.nextInt(30) * 0.0001, random.nextInt(30) * 0.0001));
+    }
+    DeliverySlot deliverySlot = new DeliverySlot(new Date(2020, 9, 26), 0, 150000, "user0");
+    deliverySlot.setStartPoint(0, 0);
+
+    DeliverySystem sequentialDeliverySystem = new DeliverySystem(pathFinder);
+    sequentialDeliverySystem.setSpeculationExecutor(null, 1);
+    Journey sequentialJourney = sequentialDeliverySystem.createJourneyForDeliveryRequest(deliverySlot);
+    Journey speculativeJourney = deliverySystem.createJourneyForDeliveryRequest(deliverySlot);
+    assertEquals(sequentialJourney.getOrders().size(), speculativeJourney.getOrders().size());
+    assertTrue(speculativeJourney.findJourneyForTimeslot(deliverySlot));
+  }
+
+  @Test
+  public void testSpeculationRequestsTravelTimesOnRequestThread() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    Random random = new Random(23);
+    for (int order = 0; order < 8; ++order) {
+      orderHandler.addOrderToDatastore(new LibraryPoint(random.nextInt(30) * 0.0001, random.nextInt(30) * 0.0001, order),
+          Arrays.asList("buc0AAAAMAAJ"), "user0", new Point(random.nextInt(30) * 0.0001, random.nextInt(30) * 0.0001));
+    }
+    DeliverySlot deliverySlot = new DeliverySlot(new Date(2020, 9, 26), 0, 150000, "user0");
+    deliverySlot.setStartPoint(0, 0);
+
+    // Datastore calls only work on the thread of the request, thus the speculations fail if they
+    // request travel times.
+    DeliverySystem datastoreDeliverySystem = new DeliverySystem(new DatastorePathFinder(pathFinder, 3600000));
+    datastoreDeliverySystem.setRouteCache(null);
+    Journey journey = datastoreDeliverySystem.createJourneyForDeliveryRequest(deliverySlot);
+    DeliverySystem sequentialDeliverySystem = new DeliverySystem(pathFinder);
+    sequentialDeliverySystem.setSpeculationExecutor(null, 1);
+    assertEquals(sequentialDeliverySystem.createJourneyForDeliveryRequest(deliverySlot).getOrders().size(), journey.getOrders().size());
+  }
+
   @Test
   public void noAvailableOrder() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
     long totalSeconds = pathFinder.distance(points.get(0), points.get(1)) +
@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import com.google.maps.errors.ApiException;
+import java.io.IOException;
+import java.lang.InterruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that HeuristicRouteSolver finds valid routes that are close to the optimal ones.
+ */
+@RunWith(JUnit4.class)
+public class HeuristicRouteSolverTest {
+  private ManhattanDistancePathFinder pathFinder = new ManhattanDistancePathFinder();
+
+  /**
+   * Creates a journey with numberOfOrders random (library, recipient) pairs of waypoints, where
+   * each library must be visited before its recipient.
+   */
+  private Journey createRandomJourney(Random random, int numberOfOrders, RouteSolver routeSolver) throws BadRequestException {
+    Journey journey = new Journey(new CourierStop(new Point(0.05, 0.05)), pathFinder, routeSolver);
+    while (journey.getNumberOfWaypoints() < 2 * numberOfOrders) {
+      Point library = new Point(random.nextInt(1000) * 0.0001, random.nextInt(1000) * 0.0001);
+      Point recipient = new Point(random.nextInt(1000) * 0.0001, random.nextInt(1000) * 0.0001);
+      if (library.equals(recipient) || !journey.addPointToWaypoints(library)) {
+        continue;
+      }
+      if (!journey.addPointToWaypoints(recipient)) {
+        try {
+          journey.removeWaypoint(library);
+        } catch (DataNotFoundException e) {
+          throw new AssertionError(e);
+        }
+        continue;
+      }
+      journey.addRestriction(journey.getNumberOfWaypoints() - 2, journey.getNumberOfWaypoints() - 1);
+    }
+    return journey;
+  }
+
+  private RouteSolution solve(Journey journey, RouteSolver routeSolver) throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    journey.getTravelTimes().fill();
+    return routeSolver.solve(journey.getTravelTimes(), journey.getRestrictions());
+  }
+
+  /**
+   * Checks that route visits each waypoint once, satisfies the restrictions and lasts route.getTime().
+   */
+  private void assertRouteIsValid(Journey journey, RouteSolution route) {
+    int[] position = new int[journey.getNumberOfWaypoints()];
+    Arrays.fill(position, -1);
+    int[] order = route.getOrder();
+    assertEquals(journey.getNumberOfWaypoints(), order.length);
+    for (int index = 0; index < order.length; ++ index) {
+      assertEquals(-1, position[order[index]]);
+      position[order[index]] = index;
+    }
+    for (Journey.Pair restriction : journey.getRestrictions()) {
+      assertTrue(position[restriction.first] < position[restriction.second]);
+    }
+    TravelTimeMatrix travelTimes = journey.getTravelTimes();
+    int time = travelTimes.getTimeFromStart(order[0]);
+    for (int index = 1; index < order.length; ++ index) {
+      time += travelTimes.getTime(order[index - 1], order[index]);
+    }
+    assertEquals(time, route.getTime());
+  }
+
+  @Test
+  public void testSmallJourneysAreCloseToOptimal() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Random random = new Random(235);
+    for (int test = 0; test < 20; ++ test) {
+      HeuristicRouteSolver heuristicSolver = new HeuristicRouteSolver();
+      Journey journey = createRandomJourney(random, 5, heuristicSolver);
+      RouteSolution heuristicRoute = solve(journey, heuristicSolver);
+      RouteSolution optimalRoute = solve(journey, new ExactRouteSolver());
+      assertRouteIsValid(journey, heuristicRoute);
+      assertTrue(heuristicRoute.getTime() >= optimalRoute.getTime());
+      assertTrue(heuristicRoute.getTime() <= 1.25 * optimalRoute.getTime());
+    }
+  }
+
+  @Test
+  public void testLargeJourney() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    HeuristicRouteSolver heuristicSolver = new HeuristicRouteSolver();
+    Journey journey = createRandomJourney(new Random(47), 100, heuristicSolver);
+    RouteSolution route = solve(journey, heuristicSolver);
+    assertRouteIsValid(journey, route);
+    // The journey delegates to the heuristic solver.
+    assertEquals(journey.getNumberOfWaypoints() + 1, journey.findOptimalOrderForWaypoints().size());
+  }
+
+  @Test
+  public void testNoRouteForCyclicRestrictions() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    HeuristicRouteSolver heuristicSolver = new HeuristicRouteSolver();
+    Journey journey = createRandomJourney(new Random(1), 3, heuristicSolver);
+    // The recipient of the first order must be visited before its library.
+    journey.addRestriction(1, 0);
+    assertNull(solve(journey, heuristicSolver));
+  }
+}
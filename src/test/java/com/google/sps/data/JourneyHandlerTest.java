@@ -39,6 +39,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import static com.google.appengine.api.datastore.FetchOptions.Builder.withLimit;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
 
 /**
  * Tests that orders are correctly assigned to delivery slots.
@@ -103,16 +107,19 @@ public class JourneyHandlerTest {
   }
 
   @Test
-  public void testProcessDeliveryNoOrders() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+  public void testDispatchWithoutOrders() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
     DeliverySlot deliverySlot = new DeliverySlot(new Date(2020, 9, 26), 0,  36000, "user0");
     // Start all delivery journey at point (-0.0001, 0).
     deliverySlot.setStartPoint(-0.0001, 0);
+    DeliverySlotManager slotManager = new DeliverySlotManager();
+    slotManager.createDeliverySlot(deliverySlot);
     // There are no orders added to datastore, thus there will be no journey for the delivery slot.
-   Assert.assertFalse(journeyHandler.processDeliveryRequest(deliverySlot));
+    Assert.assertEquals(0, journeyHandler.dispatchDeliveryRequests(new Date(2020, 9, 26), new Date(2020, 9, 27)));
+    Assert.assertEquals(DeliverySlot.Status.PENDING, slotManager.getDeliverySlotStatus(deliverySlot.getSlotId(), "user0"));
   }
 
   @Test
-  public void testProcessDelivery() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+  public void testDispatchDeliveryRequest() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
     createOrder(courierStops.get(1), courierStops.get(2), Arrays.asList("buc0AAAAMAAJ", "zyTCAlFPjgYC"), "user0", /** addOrderKey = */ true);
     createOrder(courierStops.get(3), courierStops.get(4), Arrays.asList("buc0AAAAMAAJ", "zyTCAlFPjgYC"), "user0", /** addOrderKey = */ true);
     createOrder(courierStops.get(3), courierStops.get(5), Arrays.asList("buc0AAAAMAAJ", "zyTCAlFPjgYC"), "user0", /** addOrderKey = */ true);
@@ -129,7 +136,8 @@ public class JourneyHandlerTest {
     DeliverySlot deliverySlot = new DeliverySlot(new Date(2020, 9, 26), 0, totalSeconds * 1000, "user0");
     // Start all delivery journey at point (-0.0001, 0).
     deliverySlot.setStartPoint(-0.0001, 0);
-    journeyHandler.processDeliveryRequest(deliverySlot);
+    new DeliverySlotManager().createDeliverySlot(deliverySlot);
+    Assert.assertEquals(1, journeyHandler.dispatchDeliveryRequests(new Date(2020, 9, 26), new Date(2020, 9, 27)));
 
     DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
     Entity journeyEntity = ds.prepare(new Query("Journey")).asSingleEntity();
@@ -140,6 +148,143 @@ public class JourneyHandlerTest {
     Assert.assertEquals(gson.toJson(waypoints), journeyEntity.getProperty("waypoints"));
   }
 
+  @Test
+  public void testDispatchDeliveryRequests() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    Point otherRecipient = new Point(0.0002, -0.0003);
+    createOrder(courierStops.get(1), courierStops.get(2), Arrays.asList("buc0AAAAMAAJ", "zyTCAlFPjgYC"), "user0", /** addOrderKey = */ false);
+    orderHandler.addOrderToDatastore((LibraryPoint) points.get(0), Arrays.asList("NRWlitmahXkC"), "user0", otherRecipient);
+    DeliverySlotManager slotManager = new DeliverySlotManager();
+    // Each of the first two couriers has time for exactly one order and the third one for none.
+    long firstSlotSeconds = pathFinder.distance(startPoint, points.get(0)) + pathFinder.distance(points.get(0), points.get(1));
+    long secondSlotSeconds = pathFinder.distance(startPoint, points.get(0)) + pathFinder.distance(points.get(0), otherRecipient);
+    List<DeliverySlot> deliverySlots = Arrays.asList(
+        new DeliverySlot(new Date(2020, 9, 26), 0, firstSlotSeconds * 1000, "user1"),
+        new DeliverySlot(new Date(2020, 9, 26), 0, secondSlotSeconds * 1000, "user2"),
+        new DeliverySlot(new Date(2020, 9, 26), 0, 1000, "user3"));
+    for (DeliverySlot deliverySlot : deliverySlots) {
+      deliverySlot.setStartPoint(-0.0001, 0);
+      slotManager.createDeliverySlot(deliverySlot);
+    }
+
+    Assert.assertEquals(2, journeyHandler.dispatchDeliveryRequests(new Date(2020, 9, 26), new Date(2020, 9, 27)));
+    Assert.assertEquals(1, journeyHandler.getJourneysForUser("user1").size());
+    Assert.assertEquals(1, journeyHandler.getJourneysForUser("user2").size());
+    Assert.assertEquals(0, journeyHandler.getJourneysForUser("user3").size());
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    for (Entity order : ds.prepare(new Query("Order")).asIterable()) {
+      Assert.assertEquals(OrderHandler.OrderStatus.ASSIGNED.toString(), order.getProperty(OrderHandler.OrderProperty.STATUS.label));
+    }
+    // Only the slot without orders is still pending, and it gets no journey in later runs.
+    Assert.assertEquals(Arrays.asList(deliverySlots.get(2).getSlotId()),
+        slotManager.getPendingDeliverySlotRequests(new Date(2020, 9, 26), new Date(2020, 9, 27)).stream()
+        .map(DeliverySlot::getSlotId).collect(Collectors.toList()));
+    Assert.assertEquals(0, journeyHandler.dispatchDeliveryRequests(new Date(2020, 9, 26), new Date(2020, 9, 27)));
+    // The stored journeys can be found from the ids of their slots.
+    Assert.assertEquals("user1", journeyHandler.getJourneyForDeliverySlot(deliverySlots.get(0).getSlotId()).getProperty("uid"));
+    Assert.assertEquals("user2", journeyHandler.getJourneyForDeliverySlot(deliverySlots.get(1).getSlotId()).getProperty("uid"));
+    Assert.assertNull(journeyHandler.getJourneyForDeliverySlot(deliverySlots.get(2).getSlotId()));
+  }
+
+  @Test
+  public void testFailedJourneyGivesBackOrders() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    Point otherRecipient = new Point(0.0002, -0.0003);
+    createOrder(courierStops.get(1), courierStops.get(2), Arrays.asList("buc0AAAAMAAJ", "zyTCAlFPjgYC"), "user0", /** addOrderKey = */ false);
+    orderHandler.addOrderToDatastore((LibraryPoint) points.get(0), Arrays.asList("NRWlitmahXkC"), "user0", otherRecipient);
+    DeliverySlotManager slotManager = new DeliverySlotManager();
+    // Each courier has time for exactly one order.
+    long firstSlotSeconds = pathFinder.distance(startPoint, points.get(0)) + pathFinder.distance(points.get(0), points.get(1));
+    long secondSlotSeconds = pathFinder.distance(startPoint, points.get(0)) + pathFinder.distance(points.get(0), otherRecipient);
+    List<DeliverySlot> deliverySlots = Arrays.asList(
+        new DeliverySlot(new Date(2020, 9, 26), 0, firstSlotSeconds * 1000, "user1"),
+        new DeliverySlot(new Date(2020, 9, 26), 0, secondSlotSeconds * 1000, "user2"));
+    for (DeliverySlot deliverySlot : deliverySlots) {
+      deliverySlot.setStartPoint(-0.0001, 0);
+      slotManager.createDeliverySlot(deliverySlot);
+    }
+    // The journey of the first courier can't be stored.
+    JourneyHandler failingJourneyHandler = spy(journeyHandler);
+    doThrow(new IOException("Unable to store the journey")).when(failingJourneyHandler)
+        .addDeliveryJourney(any(), argThat(deliverySlot -> deliverySlot != null && deliverySlot.getUserId().equals("user1")));
+
+    Assert.assertEquals(1, failingJourneyHandler.dispatchDeliveryRequests(new Date(2020, 9, 26), new Date(2020, 9, 27)));
+    Assert.assertEquals(0, journeyHandler.getJourneysForUser("user1").size());
+    Assert.assertEquals(1, journeyHandler.getJourneysForUser("user2").size());
+    Assert.assertEquals(DeliverySlot.Status.PENDING, slotManager.getDeliverySlotStatus(deliverySlots.get(0).getSlotId(), "user1"));
+    // The order of the first courier is given back, thus it is dispatched by a later run.
+    List<String> statuses = new ArrayList<>();
+    for (Entity order : DatastoreServiceFactory.getDatastoreService().prepare(new Query("Order")).asIterable()) {
+      statuses.add((String) order.getProperty(OrderHandler.OrderProperty.STATUS.label));
+    }
+    Assert.assertEquals(1, statuses.stream().filter(OrderHandler.OrderStatus.ADDED.toString()::equals).count());
+    Assert.assertEquals(1, journeyHandler.dispatchDeliveryRequests(new Date(2020, 9, 26), new Date(2020, 9, 27)));
+    Assert.assertEquals(1, journeyHandler.getJourneysForUser("user1").size());
+  }
+
+  @Test
+  public void testAddOrderToOpenJourney() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    List<String> bookIds = Arrays.asList("buc0AAAAMAAJ");
+    String firstOrderKey = orderHandler.addOrderToDatastore((LibraryPoint) points.get(0), bookIds, "user0", points.get(1));
+    // After its first order, the courier has time left for an order from points[2] to points[3],
+    // which are on the way, but not for one to points[5].
+    long slotSeconds = 0;
+    for (int i = 0; i < 4; ++i) {
+      slotSeconds += pathFinder.distance(courierStops.get(i).getPoint(), courierStops.get(i + 1).getPoint());
+    }
+    DeliverySlot deliverySlot = new DeliverySlot(new Date(2020, 9, 26), 0, slotSeconds * 1000, "user1");
+    deliverySlot.setStartPoint(-0.0001, 0);
+    new DeliverySlotManager().createDeliverySlot(deliverySlot);
+    Assert.assertEquals(1, journeyHandler.dispatchDeliveryRequests(new Date(2020, 9, 26), new Date(2020, 9, 27)));
+
+    String farOrderKey = orderHandler.addOrderToDatastore((LibraryPoint) points.get(2), bookIds, "user0", points.get(5));
+    Assert.assertFalse(journeyHandler.addOrderToOpenJourney(new Order(farOrderKey, (LibraryPoint) points.get(2), points.get(5), bookIds, OrderHandler.OrderStatus.ADDED)));
+    String orderKey = orderHandler.addOrderToDatastore((LibraryPoint) points.get(2), bookIds, "user0", points.get(3));
+    Assert.assertTrue(journeyHandler.addOrderToOpenJourney(new Order(orderKey, (LibraryPoint) points.get(2), points.get(3), bookIds, OrderHandler.OrderStatus.ADDED)));
+
+    // The new order is appended to the stored route and assigned.
+    List<CourierStop> expectedWaypoints = new ArrayList<>();
+    for (int i = 0; i < 5; ++i) {
+      expectedWaypoints.add(new CourierStop(courierStops.get(i).getPoint()));
+    }
+    expectedWaypoints.get(1).addOrderKey(firstOrderKey);
+    expectedWaypoints.get(2).addOrderKey(firstOrderKey);
+    expectedWaypoints.get(3).addOrderKey(orderKey);
+    expectedWaypoints.get(4).addOrderKey(orderKey);
+    Assert.assertEquals(new Gson().toJson(expectedWaypoints), journeyHandler.getJourneyForDeliverySlot(deliverySlot.getSlotId()).getProperty("waypoints"));
+    Assert.assertEquals(OrderHandler.OrderStatus.ASSIGNED.toString(), orderHandler.getProperty(orderKey, OrderHandler.OrderProperty.STATUS.label));
+    Assert.assertEquals(OrderHandler.OrderStatus.ADDED.toString(), orderHandler.getProperty(farOrderKey, OrderHandler.OrderProperty.STATUS.label));
+  }
+
+  @Test
+  public void testOrderIsOnlyTriedInNearestOpenJourneys() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    LibraryPoint library = (LibraryPoint) points.get(0);
+    // The couriers start farther and farther from the order.
+    List<Entity> journeyEntities = new ArrayList<>();
+    for (int journey = 0; journey < 8; ++journey) {
+      Entity journeyEntity = new Entity("Journey");
+      journeyEntity.setProperty("area", library.getArea());
+      journeyEntity.setProperty("startDate", new Date(System.currentTimeMillis() + 3600000));
+      journeyEntity.setProperty("endDate", new Date(System.currentTimeMillis() + 2 * 3600000));
+      journeyEntity.setProperty("waypoints", new Gson().toJson(Arrays.asList(new CourierStop(new Point(0.0001 - 0.0001 * journey, 0.0002)))));
+      DatastoreServiceFactory.getDatastoreService().put(journeyEntity);
+      journeyEntities.add(journeyEntity);
+    }
+    List<Point> requestedPoints = new ArrayList<>();
+    PathFinder recordingPathFinder = (a, b) -> {
+      requestedPoints.add(a);
+      requestedPoints.add(b);
+      return pathFinder.getTimeInSecondsBetweenPoints(a, b);
+    };
+
+    String orderKey = orderHandler.addOrderToDatastore(library, Arrays.asList("buc0AAAAMAAJ"), "user0", points.get(1));
+    Assert.assertTrue(new JourneyHandler(recordingPathFinder).addOrderToOpenJourney(new Order(orderKey, library, points.get(1), Arrays.asList("buc0AAAAMAAJ"), OrderHandler.OrderStatus.ADDED)));
+    // The farthest couriers are not considered, thus their travel times are not requested.
+    for (int journey = 0; journey < 8; ++journey) {
+      Assert.assertEquals(journey < 5, requestedPoints.contains(new Point(0.0001 - 0.0001 * journey, 0.0002)));
+    }
+    Entity nearestJourney = DatastoreServiceFactory.getDatastoreService().get(journeyEntities.get(0).getKey());
+    Assert.assertTrue(((String) nearestJourney.getProperty("waypoints")).contains(orderKey));
+  }
+
   @Test
   public void testGetJourneysForUser() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
     // Create journey for user0 visiting courierStops in a 1 hour delivery slot.
@@ -21,6 +21,8 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import java.io.IOException;
 import java.lang.InterruptedException;
@@ -35,17 +37,62 @@ import org.junit.runners.JUnit4;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
  * Tests the behaviour of a Journey object.
- * TODO[ak47na]: Implement brute-force algorithm that iterates over all permutations of waypoints
- * and finds the optimal one.
  */
 @RunWith(JUnit4.class)
 public class JourneyTest {
   private ManhattanDistancePathFinder pathFinder = new ManhattanDistancePathFinder();
+
+  /**
+   * Returns the total time of the journey that visits the points in the given order.
+   */
+  private long getJourneyTime(List<CourierStop> orderedStops) {
+    long totalSeconds = 0;
+    for (int i = 0; i < orderedStops.size() - 1; ++ i) {
+      totalSeconds += pathFinder.distance(orderedStops.get(i).getPoint(), orderedStops.get(i + 1).getPoint());
+    }
+    return totalSeconds;
+  }
+
+  /**
+   * Iterates over all permutations of points that satisfy the restrictions and returns the minimum
+   * time needed to visit all of them starting from start.
+   */
+  private long findMinTimeBruteForce(Point start, List<Point> points, List<int[]> restrictions, int visited, int last) {
+    if (visited == (1 << points.size()) - 1) {
+      return 0;
+    }
+    long minTime = Long.MAX_VALUE;
+    for (int next = 0; next < points.size(); ++ next) {
+      if ((visited & (1 << next)) != 0) {
+        continue;
+      }
+      boolean isValid = true;
+      for (int[] restriction : restrictions) {
+        if (restriction[1] == next && (visited & (1 << restriction[0])) == 0) {
+          isValid = false;
+        }
+      }
+      if (!isValid) {
+        continue;
+      }
+      long remainingTime = findMinTimeBruteForce(start, points, restrictions, visited | (1 << next), next);
+      if (remainingTime != Long.MAX_VALUE) {
+        Point lastPoint = (last == -1) ? start : points.get(last);
+        minTime = Math.min(minTime, remainingTime + pathFinder.distance(lastPoint, points.get(next)));
+      }
+    }
+    return minTime;
+  }
   
   @Test
   public void testEmptyJourney() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
@@ -338,4 +385,393 @@ public class JourneyTest {
     assertFalse(journey.findJourneyForTimeslot(new DeliverySlot(new java.util.Date(2020, 26, 9), 0, totalSeconds * 1000, "user0")));
     journey.findOptimalOrderForWaypoints();
   }
+
+  @Test
+  public void testOptimalTimeMatchesBruteForce() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Random random = new Random(235);
+    CourierStop start = new CourierStop(new Point(0, 0));
+    for (int test = 0; test < 5; ++ test) {
+      Journey journey = new Journey(start, pathFinder);
+      List<Point> points = new ArrayList<>();
+      while (points.size() < 8) {
+        Point point = new Point(random.nextInt(100) * 0.0001, random.nextInt(100) * 0.0001);
+        if (journey.addPointToWaypoints(point)) {
+          points.add(point);
+        }
+      }
+      // Pair up the points as (library, recipient) such that each library is visited first.
+      List<int[]> restrictions = new ArrayList<>();
+      for (int i = 0; i < points.size(); i += 2) {
+        journey.addRestriction(i, i + 1);
+        restrictions.add(new int[] {i, i + 1});
+      }
+      long totalSeconds = findMinTimeBruteForce(start.getPoint(), points, restrictions, 0, -1);
+
+      List<CourierStop> orderedWaypoints = journey.findOptimalOrderForWaypoints();
+      assertEquals(totalSeconds, getJourneyTime(orderedWaypoints));
+      assertTrue(journey.findJourneyForTimeslot(new DeliverySlot(new java.util.Date(2020, 26, 9), 0, totalSeconds * 1000, "user0")));
+      assertFalse(journey.findJourneyForTimeslot(new DeliverySlot(new java.util.Date(2020, 26, 9), 0, (totalSeconds - 1) * 1000, "user0")));
+    }
+  }
+
+  @Test
+  public void testTravelTimesAreRequestedOncePerPair() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    CourierStop start = new CourierStop(new Point(-0.0001, 0));
+    Journey journey = new Journey(start, pathFinder);
+    for (int i = 0; i < 10; ++ i) {
+      journey.addPointToWaypoints(new Point(0.0001 * i, 0.0002 * (i % 3)));
+    }
+    journey.findOptimalOrderForWaypoints();
+    journey.findJourneyForTimeslot(new DeliverySlot(new java.util.Date(2020, 26, 9), 0, 1000, "user0"));
+    assertEquals(100, journey.getTravelTimes().getNumberOfLookups());
+  }
+
+  @Test
+  public void testIncrementalSolveMatchesFreshSolve() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Random random = new Random(2020);
+    CourierStop start = new CourierStop(new Point(0, 0));
+    Journey journey = new Journey(start, pathFinder);
+    List<Point> points = new ArrayList<>();
+    List<int[]> restrictions = new ArrayList<>();
+    while (points.size() < 10) {
+      // Add an order with a new library and a new recipient as the greedy order insertion does.
+      Point library = new Point(random.nextInt(100) * 0.0001, random.nextInt(100) * 0.0001);
+      Point recipient = new Point(random.nextInt(100) * 0.0001, random.nextInt(100) * 0.0001);
+      if (points.contains(library) || points.contains(recipient) || library.equals(recipient)) {
+        continue;
+      }
+      journey.addPointToWaypoints(library);
+      journey.addPointToWaypoints(recipient);
+      journey.addRestriction(points.size(), points.size() + 1);
+      journey.findJourneyForTimeslot(new DeliverySlot(new java.util.Date(2020, 26, 9), 0, 1000, "user0"));
+      if (random.nextBoolean()) {
+        // Reject the order.
+        journey.removeRestriction(points.size(), points.size() + 1);
+        journey.removeWaypoint(recipient);
+        journey.removeWaypoint(library);
+        continue;
+      }
+      restrictions.add(new int[] {points.size(), points.size() + 1});
+      points.add(library);
+      points.add(recipient);
+
+      Journey freshJourney = new Journey(start, pathFinder);
+      for (Point point : points) {
+        freshJourney.addPointToWaypoints(point);
+      }
+      for (int[] restriction : restrictions) {
+        freshJourney.addRestriction(restriction[0], restriction[1]);
+      }
+      assertEquals(freshJourney.findOptimalOrderForWaypoints(), journey.findOptimalOrderForWaypoints());
+      assertEquals(findMinTimeBruteForce(start.getPoint(), points, restrictions, 0, -1),
+          getJourneyTime(journey.findOptimalOrderForWaypoints()));
+    }
+  }
+
+  @Test
+  public void testFeasibilityCheckMatchesOptimalTime() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Random random = new Random(1234);
+    CourierStop start = new CourierStop(new Point(0, 0));
+    Journey journey = new Journey(start, pathFinder);
+    List<Point> points = new ArrayList<>();
+    List<int[]> restrictions = new ArrayList<>();
+    while (points.size() < 12) {
+      Point library = new Point(random.nextInt(100) * 0.0001, random.nextInt(100) * 0.0001);
+      Point recipient = new Point(random.nextInt(100) * 0.0001, random.nextInt(100) * 0.0001);
+      if (points.contains(library) || points.contains(recipient) || library.equals(recipient)) {
+        continue;
+      }
+      journey.addPointToWaypoints(library);
+      journey.addPointToWaypoints(recipient);
+      journey.addRestriction(points.size(), points.size() + 1);
+      restrictions.add(new int[] {points.size(), points.size() + 1});
+      points.add(library);
+      points.add(recipient);
+      long totalSeconds = findMinTimeBruteForce(start.getPoint(), points, restrictions, 0, -1);
+
+      // Check the bounds around the optimal time in both directions, so that the pruned tables are
+      // reused for smaller bounds and computed again for greater ones.
+      assertFalse(journey.findJourneyForTimeslot(new DeliverySlot(new java.util.Date(2020, 26, 9), 0, (totalSeconds - 1) * 1000, "user0")));
+      assertTrue(journey.findJourneyForTimeslot(new DeliverySlot(new java.util.Date(2020, 26, 9), 0, totalSeconds * 1000, "user0")));
+      assertFalse(journey.findJourneyForTimeslot(new DeliverySlot(new java.util.Date(2020, 26, 9), 0, (totalSeconds / 2) * 1000, "user0")));
+      assertEquals(totalSeconds, getJourneyTime(journey.findOptimalOrderForWaypoints()));
+    }
+  }
+
+  @Test
+  public void testRemovedRestrictionNoLongerAffectsRoute() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Random random = new Random(77);
+    CourierStop start = new CourierStop(new Point(0, 0));
+    Journey journey = new Journey(start, pathFinder);
+    List<Point> points = new ArrayList<>();
+    while (points.size() < 8) {
+      Point point = new Point(random.nextInt(100) * 0.0001, random.nextInt(100) * 0.0001);
+      if (journey.addPointToWaypoints(point)) {
+        points.add(point);
+      }
+    }
+    List<int[]> restrictions = new ArrayList<>();
+    for (int i = 0; i < points.size(); i += 2) {
+      // The recipient has the smaller index, so removing the restriction makes new configs reachable.
+      journey.addRestriction(i + 1, i);
+      restrictions.add(new int[] {i + 1, i});
+    }
+    assertEquals(findMinTimeBruteForce(start.getPoint(), points, restrictions, 0, -1),
+        getJourneyTime(journey.findOptimalOrderForWaypoints()));
+
+    journey.removeRestriction(3, 2);
+    restrictions.remove(1);
+    assertEquals(findMinTimeBruteForce(start.getPoint(), points, restrictions, 0, -1),
+        getJourneyTime(journey.findOptimalOrderForWaypoints()));
+  }
+
+  @Test
+  public void testParallelSolveMatchesSequentialSolve() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Random random = new Random(47);
+    CourierStop start = new CourierStop(new Point(0, 0));
+    Journey sequentialJourney = new Journey(start, pathFinder);
+    Journey parallelJourney = new Journey(start, pathFinder, new ExactRouteSolver(new ForkJoinPool(4)));
+    List<Point> points = new ArrayList<>();
+    while (points.size() < 16) {
+      Point point = new Point(random.nextInt(1000) * 0.0001, random.nextInt(1000) * 0.0001);
+      if (sequentialJourney.addPointToWaypoints(point)) {
+        parallelJourney.addPointToWaypoints(point);
+        points.add(point);
+      }
+    }
+    for (int i = 0; i < points.size(); i += 2) {
+      sequentialJourney.addRestriction(i, i + 1);
+      parallelJourney.addRestriction(i, i + 1);
+    }
+    assertEquals(sequentialJourney.findOptimalOrderForWaypoints(), parallelJourney.findOptimalOrderForWaypoints());
+  }
+
+  @Test
+  public void testOffHeapSolveMatchesHeapSolve() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Random random = new Random(31);
+    CourierStop start = new CourierStop(new Point(0, 0));
+    Journey heapJourney = new Journey(start, pathFinder);
+    Journey offHeapJourney = new Journey(start, pathFinder, new ExactRouteSolver(null, /** isOffHeap = */ true));
+    List<Point> points = new ArrayList<>();
+    while (points.size() < 12) {
+      Point library = new Point(random.nextInt(1000) * 0.0001, random.nextInt(1000) * 0.0001);
+      Point recipient = new Point(random.nextInt(1000) * 0.0001, random.nextInt(1000) * 0.0001);
+      if (points.contains(library) || points.contains(recipient) || library.equals(recipient)) {
+        continue;
+      }
+      for (Journey journey : Arrays.asList(heapJourney, offHeapJourney)) {
+        journey.addPointToWaypoints(library);
+        journey.addPointToWaypoints(recipient);
+        journey.addRestriction(points.size(), points.size() + 1);
+      }
+      points.add(library);
+      points.add(recipient);
+      // Solve after each order, so that the off-heap table grows and keeps the solved rows.
+      assertEquals(heapJourney.findOptimalOrderForWaypoints(), offHeapJourney.findOptimalOrderForWaypoints());
+    }
+  }
+
+  @Test
+  public void testInsertedOrderUsesCheapestPositions() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Random random = new Random(41);
+    CourierStop start = new CourierStop(new Point(0, 0));
+    for (int test = 0; test < 5; ++ test) {
+      Journey journey = new Journey(start, pathFinder);
+      List<Point> points = new ArrayList<>();
+      while (points.size() < 8) {
+        Point point = new Point(random.nextInt(100) * 0.0001, random.nextInt(100) * 0.0001);
+        if (!points.contains(point)) {
+          points.add(point);
+        }
+      }
+      // No route is known before the journey is solved.
+      journey.addPointToWaypoints(points.get(0));
+      journey.addPointToWaypoints(points.get(1));
+      journey.addRestriction(0, 1);
+      assertEquals(-1, journey.insertOrderIntoKnownRoute(0, 1, Long.MAX_VALUE));
+      for (int i = 2; i < 6; i += 2) {
+        journey.addPointToWaypoints(points.get(i));
+        journey.addPointToWaypoints(points.get(i + 1));
+        journey.addRestriction(i, i + 1);
+      }
+      journey.updateKnownRoute();
+      List<CourierStop> route = journey.findOptimalOrderForWaypoints();
+
+      // Try all positions of the new library and recipient in the solved route.
+      long minTime = Long.MAX_VALUE;
+      for (int libraryIndex = 1; libraryIndex <= route.size(); ++ libraryIndex) {
+        for (int recipientIndex = libraryIndex + 1; recipientIndex <= route.size() + 1; ++ recipientIndex) {
+          List<CourierStop> insertedRoute = new ArrayList<>(route);
+          insertedRoute.add(libraryIndex, new CourierStop(points.get(6)));
+          insertedRoute.add(recipientIndex, new CourierStop(points.get(7)));
+          minTime = Math.min(minTime, getJourneyTime(insertedRoute));
+        }
+      }
+      journey.addPointToWaypoints(points.get(6));
+      journey.addPointToWaypoints(points.get(7));
+      journey.addRestriction(6, 7);
+      // A route that doesn't fit is not kept, so inserting the order again gives the same time.
+      assertEquals(minTime, journey.insertOrderIntoKnownRoute(6, 7, minTime - 1));
+      assertEquals(minTime, journey.insertOrderIntoKnownRoute(6, 7, minTime));
+      // The order is in the known route now, thus it is not inserted again.
+      assertEquals(minTime, journey.insertOrderIntoKnownRoute(6, 7, minTime));
+      assertTrue(minTime >= getJourneyTime(journey.findOptimalOrderForWaypoints()));
+    }
+  }
+
+  @Test
+  public void testWaypointOrderIsKnownRouteOnlyIfValid() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    CourierStop start = new CourierStop(new Point(0, 0));
+    LibraryPoint library = new LibraryPoint(0.0002, 0.0004, 0);
+    Point recipient = new Point(0.0001, 0.0001);
+    // The recipient is closer to the start, but it is added after the library, which is kept.
+    Journey journey = new Journey(start, pathFinder);
+    journey.addPointToWaypoints(library);
+    journey.addPointToWaypoints(recipient);
+    journey.addRestriction(0, 1);
+    journey.useWaypointOrderAsKnownRoute();
+    assertEquals(Arrays.asList(start.getPoint(), library, recipient),
+        journey.getKnownRouteWaypoints().stream().map(CourierStop::getPoint).collect(Collectors.toList()));
+
+    // The recipient is added before the library, thus the route is solved instead.
+    Journey invalidJourney = new Journey(start, pathFinder);
+    invalidJourney.addPointToWaypoints(recipient);
+    invalidJourney.addPointToWaypoints(library);
+    invalidJourney.addRestriction(1, 0);
+    invalidJourney.useWaypointOrderAsKnownRoute();
+    assertEquals(Arrays.asList(start.getPoint(), library, recipient),
+        invalidJourney.getKnownRouteWaypoints().stream().map(CourierStop::getPoint).collect(Collectors.toList()));
+    assertEquals(pathFinder.distance(start.getPoint(), library) + pathFinder.distance(library, recipient), invalidJourney.getKnownRouteTime());
+  }
+
+  @Test
+  public void testCopyIsIndependentOfJourney() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    CourierStop start = new CourierStop(new Point(0, 0));
+    Journey journey = new Journey(start, pathFinder);
+    List<Point> points = Arrays.asList(new LibraryPoint(0.0002, 0.0004, 0), new Point(0.0006, 0.0001),
+        new Point(0.0003, 0.0008), new LibraryPoint(0.0009, 0.0005, 1));
+    journey.addPointToWaypoints(points.get(0));
+    journey.addPointToWaypoints(points.get(1));
+    journey.addRestriction(0, 1);
+    journey.addOrder("order0", (LibraryPoint) points.get(0), points.get(1));
+    journey.updateKnownRoute();
+
+    Journey copy = new Journey(journey, new ExactRouteSolver());
+    // The copy doesn't request the known travel times again.
+    assertEquals(journey.findOptimalOrderForWaypoints(), copy.findOptimalOrderForWaypoints());
+    assertEquals(0, copy.getTravelTimes().getNumberOfLookups());
+    assertEquals(journey.getKnownRouteTime(), copy.getKnownRouteTime());
+
+    copy.addPointToWaypoints(points.get(2));
+    copy.addPointToWaypoints(points.get(3));
+    copy.addRestriction(3, 2);
+    copy.addOrder("order1", (LibraryPoint) points.get(3), points.get(2));
+    assertEquals(2, journey.getNumberOfWaypoints());
+    assertEquals(1, journey.getRestrictions().size());
+    assertEquals(Arrays.asList("order0"), journey.getOrders());
+    assertEquals(Arrays.asList("order0"), journey.getWaypoints().get(0).getOrderKeys());
+    assertEquals(Arrays.asList("order0", "order1"), copy.getOrders());
+  }
+
+  /**
+   * Returns a new journey that starts at start and visits points, with a restriction for each pair
+   * of points.
+   */
+  private Journey createJourney(CourierStop start, List<Point> points, RouteSolver routeSolver) {
+    Journey journey = new Journey(start, pathFinder, routeSolver);
+    for (int i = 0; i < points.size(); i += 2) {
+      journey.addPointToWaypoints(points.get(i));
+      journey.addPointToWaypoints(points.get(i + 1));
+      journey.addRestriction(i, i + 1);
+    }
+    return journey;
+  }
+
+  @Test
+  public void testCopiesShareSolvedRowsOfJourney() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Random random = new Random(53);
+    CourierStop start = new CourierStop(new Point(0, 0));
+    List<Point> points = new ArrayList<>();
+    while (points.size() < 12) {
+      Point point = new Point(random.nextInt(1000) * 0.0001, random.nextInt(1000) * 0.0001);
+      if (!points.contains(point)) {
+        points.add(point);
+      }
+    }
+    for (boolean isOffHeap : new boolean[] {false, true}) {
+      Journey journey = createJourney(start, points.subList(0, 6), new ExactRouteSolver(null, isOffHeap));
+      journey.findOptimalOrderForWaypoints();
+
+      // Each copy adds its own order to the solved rows it shares with the journey.
+      List<Journey> copies = new ArrayList<>();
+      for (int i = 6; i < 12; i += 2) {
+        Journey copy = new Journey(journey);
+        copy.addPointToWaypoints(points.get(i));
+        copy.addPointToWaypoints(points.get(i + 1));
+        copy.addRestriction(6, 7);
+        copies.add(copy);
+      }
+      for (int copy = 0; copy < copies.size(); ++ copy) {
+        List<Point> copyPoints = new ArrayList<>(points.subList(0, 6));
+        copyPoints.addAll(points.subList(6 + 2 * copy, 8 + 2 * copy));
+        assertEquals(createJourney(start, copyPoints, new ExactRouteSolver()).findOptimalOrderForWaypoints(),
+            copies.get(copy).findOptimalOrderForWaypoints());
+      }
+
+      // The journey is not changed by the copies, and it still solves after they are released.
+      for (Journey copy : copies) {
+        copy.release();
+      }
+      assertEquals(createJourney(start, points.subList(0, 6), new ExactRouteSolver()).findOptimalOrderForWaypoints(),
+          journey.findOptimalOrderForWaypoints());
+      journey.addPointToWaypoints(points.get(6));
+      journey.addPointToWaypoints(points.get(7));
+      journey.addRestriction(6, 7);
+      assertEquals(createJourney(start, points.subList(0, 8), new ExactRouteSolver()).findOptimalOrderForWaypoints(),
+          journey.findOptimalOrderForWaypoints());
+      journey.release();
+    }
+  }
+
+  @Test
+  public void testLargeJourneyIsSolvedHeuristically() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Journey journey = new Journey(new CourierStop(new Point(0, 0)), pathFinder);
+    for (int i = 1; i <= 30; ++ i) {
+      journey.addPointToWaypoints(new Point(0.0001 * i, 0.0002 * (i % 7)));
+    }
+    assertEquals(31, journey.findOptimalOrderForWaypoints().size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testExactSolverRejectsLargeJourney() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    Journey journey = new Journey(new CourierStop(new Point(0, 0)), pathFinder, new ExactRouteSolver(null, /** isOffHeap = */ true));
+    for (int i = 1; i <= ExactRouteSolver.MAX_OFF_HEAP_WAYPOINTS + 1; ++ i) {
+      journey.addPointToWaypoints(new Point(0.0001 * i, 0.0002 * (i % 7)));
+    }
+    journey.findOptimalOrderForWaypoints();
+  }
+
+  @Test
+  public void testSolvedRouteIsReusedUntilJourneyChanges() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    RouteSolver routeSolver = spy(new ExactRouteSolver());
+    Journey journey = new Journey(new CourierStop(new Point(0, 0)), pathFinder, routeSolver);
+    LibraryPoint library = new LibraryPoint(0.0002, 0.0004, 0);
+    Point recipient = new Point(0.0006, 0.0001);
+    journey.addPointToWaypoints(library);
+    journey.addPointToWaypoints(recipient);
+    journey.addRestriction(0, 1);
+    journey.addOrder("order0", library, recipient);
+
+    ArrayList<CourierStop> orderedWaypoints = journey.findOptimalOrderForWaypoints();
+    DeliverySlot deliverySlot = new DeliverySlot(new Date(2020, 9, 26), 0, 3600000, "user0");
+    assertTrue(journey.findJourneyForTimeslot(deliverySlot));
+    assertEquals(orderedWaypoints, journey.findOptimalOrderForWaypoints());
+    verify(routeSolver, times(1)).solve(any(), any());
+    verify(routeSolver, never()).hasRouteWithin(any(), any(), anyInt());
+
+    // A new waypoint invalidates the solved route.
+    journey.addPointToWaypoints(new Point(0.0003, 0.0008));
+    assertEquals(4, journey.findOptimalOrderForWaypoints().size());
+    verify(routeSolver, times(2)).solve(any(), any());
+  }
 }
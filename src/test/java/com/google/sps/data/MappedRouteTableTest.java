@@ -0,0 +1,63 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that a MappedRouteTable stores the elements of all its chunks and can be released.
+ */
+@RunWith(JUnit4.class)
+public class MappedRouteTableTest {
+  @Test
+  public void testElementsAreStoredAcrossChunks() {
+    // Chunks of 16 elements, the last one being only partially used.
+    MappedRouteTable table = new MappedRouteTable(100, 4);
+    for (int index = 0; index < 100; ++ index) {
+      table.setBestTime(index, 1000 * index);
+      table.setPreviousWaypoint(index, index % 25 - 1);
+    }
+    for (int index = 0; index < 100; ++ index) {
+      assertEquals(1000 * index, table.getBestTime(index));
+      assertEquals(index % 25 - 1, table.getPreviousWaypoint(index));
+    }
+  }
+
+  @Test
+  public void testCopyElementsFromHeapTable() {
+    HeapRouteTable heapTable = new HeapRouteTable(40);
+    for (int index = 0; index < 40; ++ index) {
+      heapTable.setBestTime(index, Integer.MAX_VALUE - index);
+      heapTable.setPreviousWaypoint(index, index);
+    }
+    MappedRouteTable table = new MappedRouteTable(80, 4);
+    table.copyElements(heapTable, 10, 30, 30);
+    for (int offset = 0; offset < 30; ++ offset) {
+      assertEquals(Integer.MAX_VALUE - 10 - offset, table.getBestTime(30 + offset));
+      assertEquals(10 + offset, table.getPreviousWaypoint(30 + offset));
+    }
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testReleasedTableIsNotUsed() {
+    MappedRouteTable table = new MappedRouteTable(100, 4);
+    table.setBestTime(50, 1000);
+    table.release();
+    // The chunks are dropped, thus they are not read after they are unmapped.
+    table.getBestTime(50);
+  }
+}
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.sps.data;
 
+import com.google.maps.PendingResult;
 import com.google.maps.errors.ApiException;
 import com.google.maps.model.DirectionsLeg;
 import com.google.maps.model.DirectionsResult;
@@ -24,7 +25,10 @@ import com.google.maps.model.TravelMode;
 import com.google.maps.model.LatLng;
 import com.google.sps.data.DeliverySlot;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.time.LocalTime;
 import org.junit.Assert;
 import org.junit.Test;
@@ -69,4 +73,64 @@ public class MapsRequestTest {
     results[0].geometry.location = new LatLng(0.1, 0.1);
     Assert.assertEquals(results[0].geometry.location, MapsRequest.getLocationFromResult(results));
   }
+
+  /** A request that is answered on its own thread after the given delay. */
+  private static PendingResult<Integer> getDelayedRequest(int result, long delayMillis) {
+    return new PendingResult<Integer>() {
+      @Override
+      public void setCallback(PendingResult.Callback<Integer> callback) {
+        new Thread(() -> {
+          try {
+            Thread.sleep(delayMillis);
+          } catch (InterruptedException e) {
+            callback.onFailure(e);
+            return;
+          }
+          callback.onResult(result);
+        }).start();
+      }
+
+      @Override
+      public Integer await() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Integer awaitIgnoreError() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void cancel() {}
+    };
+  }
+
+  @Test
+  public void testRequestsAreInFlightTogether() throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    long start = System.currentTimeMillis();
+    List<CompletableFuture<Integer>> futures = new ArrayList<>();
+    for (int index = 0; index < 5; ++index) {
+      futures.add(MapsRequest.toFuture(getDelayedRequest(index, 200), result -> result * 10));
+    }
+    for (int index = 0; index < 5; ++index) {
+      Assert.assertEquals(index * 10, (int) MapsRequest.await(futures.get(index)));
+    }
+    // The requests wait at the same time, thus together they take much less than 5 * 200ms.
+    Assert.assertTrue(System.currentTimeMillis() - start < 800);
+  }
+
+  @Test(expected = DataNotFoundException.class)
+  public void testAwaitRethrowsParserException() throws ApiException, IOException, InterruptedException, DataNotFoundException {
+    MapsRequest.await(MapsRequest.toFuture(getDelayedRequest(0, 0), result -> {
+      throw new DataNotFoundException("No result!");
+    }));
+  }
+
+  @Test(expected = DataNotFoundException.class)
+  public void testDefaultAsyncPathFinderRethrowsException() throws BadRequestException, ApiException, IOException, InterruptedException, DataNotFoundException {
+    PathFinder pathFinder = (a, b) -> {
+      throw new DataNotFoundException("No path!");
+    };
+    MapsRequest.await(pathFinder.getTimeInSecondsBetweenPointsAsync(new Point(0, 0), new Point(1, 1)));
+  }
 }
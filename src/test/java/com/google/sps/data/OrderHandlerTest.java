@@ -23,6 +23,7 @@ import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.gson.Gson;
 import com.google.maps.errors.ApiException;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
@@ -32,6 +33,8 @@ import java.lang.InterruptedException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import org.junit.After;
@@ -156,6 +159,33 @@ public class OrderHandlerTest {
     Assert.assertEquals(2, ds.prepare(new Query("Order")).countEntities(FetchOptions.Builder.withLimit(10)));
   }
 
+  @Test
+  public void testOrderIsPlacedWhenAddingToOpenJourneyFails() throws InterruptedException, ApiException, IOException, DataNotFoundException, BadRequestException {
+    inintializeBooksDatastore();
+    // The travel times from the start of an open journey of the area can't be requested, which
+    // makes adding the order to it fail.
+    Point unreachablePoint = new Point(5, 5);
+    ManhattanDistancePathFinder manhattanPathFinder = new ManhattanDistancePathFinder();
+    PathFinder failingPathFinder = (a, b) -> {
+      if (a.equals(unreachablePoint) || b.equals(unreachablePoint)) {
+        throw new IOException("The point is unreachable");
+      }
+      return manhattanPathFinder.getTimeInSecondsBetweenPoints(a, b);
+    };
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Entity journey = new Entity("Journey");
+    journey.setProperty("area", new Point(3, 3).getArea());
+    journey.setProperty("startDate", new Date(System.currentTimeMillis() + 3600000));
+    journey.setProperty("endDate", new Date(System.currentTimeMillis() + 2 * 3600000));
+    journey.setProperty("waypoints", new Gson().toJson(Arrays.asList(new CourierStop(unreachablePoint))));
+    ds.put(journey);
+
+    Assert.assertEquals(Arrays.asList(), new OrderHandler(failingPathFinder).makeOrders("user1", new Point(3, 3), Arrays.asList("book1")));
+    // The order is stored and left to the next dispatch.
+    Entity order = ds.prepare(new Query("Order")).asSingleEntity();
+    Assert.assertEquals(OrderHandler.OrderStatus.ADDED.toString(), order.getProperty(OrderHandler.OrderProperty.STATUS.label));
+  }
+
   @Test
   public void testGetClosestLibrary() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
     inintializeBooksDatastore();
@@ -188,6 +218,24 @@ public class OrderHandlerTest {
     Assert.assertEquals(expected, orderHandler.getAvailableOrders(new Point(3, 3).getArea()));
   }
 
+  @Test
+  public void testGetAvailableOrdersInArea() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    String orderKey1 = orderHandler.addOrderToDatastore(new LibraryPoint(0, 0, 0), Arrays.asList("book1", "book2"), "user1", new Point(3, 3));
+    String orderKey2 = orderHandler.addOrderToDatastore(new LibraryPoint(1, 1, 1), Arrays.asList("book3"), "user1", new Point(2, 2));
+    orderHandler.updateStatusForOrders(Arrays.asList(orderKey2), OrderHandler.OrderStatus.ASSIGNED.toString());
+
+    // Only the order that is not assigned yet is available.
+    List<Order> orders = orderHandler.getAvailableOrdersInArea(new Point(3, 3).getArea());
+    Assert.assertEquals(1, orders.size());
+    Order order = orders.get(0);
+    Assert.assertEquals(orderKey1, order.getOrderKey());
+    Assert.assertEquals(new LibraryPoint(0, 0, 0), order.getLibrary());
+    Assert.assertEquals(0, order.getLibrary().getLibraryId());
+    Assert.assertEquals(new Point(3, 3), order.getRecipient());
+    Assert.assertEquals(Arrays.asList("book1", "book2"), order.getBookIds());
+    Assert.assertEquals(OrderHandler.OrderStatus.ADDED, order.getStatus());
+  }
+
   @Test
   public void testUpdateStatusForOrders() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
     DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
@@ -203,6 +251,57 @@ public class OrderHandlerTest {
     Assert.assertEquals(Arrays.asList(orderKey1, orderKey2), actual);
   }
 
+  @Test
+  public void testClaimOrders() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    String orderKey1 = orderHandler.addOrderToDatastore(new LibraryPoint(0, 0, 0), Arrays.asList("book1"), "user1", new Point(3, 3));
+    String orderKey2 = orderHandler.addOrderToDatastore(new LibraryPoint(1, 1, 1), Arrays.asList("book2"), "user1", new Point(3, 3));
+    String orderKey3 = orderHandler.addOrderToDatastore(new LibraryPoint(1, 1, 1), Arrays.asList("book3"), "user0", new Point(3, 3));
+    Assert.assertEquals(Arrays.asList(), orderHandler.claimOrders(Arrays.asList(orderKey1, orderKey2)));
+
+    // The second claim loses orderKey2, thus orderKey3 is not assigned either.
+    Assert.assertEquals(Arrays.asList(orderKey2), orderHandler.claimOrders(Arrays.asList(orderKey3, orderKey2)));
+    Assert.assertEquals(OrderHandler.OrderStatus.ASSIGNED.toString(), orderHandler.getProperty(orderKey2, OrderHandler.OrderProperty.STATUS.label));
+    Assert.assertEquals(OrderHandler.OrderStatus.ADDED.toString(), orderHandler.getProperty(orderKey3, OrderHandler.OrderProperty.STATUS.label));
+    Assert.assertEquals(Arrays.asList(), orderHandler.claimOrders(Arrays.asList(orderKey3)));
+  }
+
+  @Test
+  public void testClaimManyOrdersIsAllOrNothing() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    // The orders don't fit in a single transaction, and only the last one is lost.
+    List<String> orderKeys = new ArrayList<>();
+    for (int order = 0; order < 30; ++order) {
+      orderKeys.add(orderHandler.addOrderToDatastore(new LibraryPoint(0, 0, 0), Arrays.asList("book1"), "user1", new Point(3, 3)));
+    }
+    orderHandler.updateStatusForOrders(Arrays.asList(orderKeys.get(29)), OrderHandler.OrderStatus.ASSIGNED.toString());
+
+    Assert.assertEquals(Arrays.asList(orderKeys.get(29)), orderHandler.claimOrders(orderKeys));
+    for (int order = 0; order < 29; ++order) {
+      Assert.assertEquals(OrderHandler.OrderStatus.ADDED.toString(), orderHandler.getProperty(orderKeys.get(order), OrderHandler.OrderProperty.STATUS.label));
+    }
+  }
+
+  @Test
+  public void testClaimIsReleasedWhenLaterBatchConflicts() throws ApiException, BadRequestException, DataNotFoundException, EntityNotFoundException, IOException, InterruptedException {
+    List<String> orderKeys = new ArrayList<>();
+    for (int order = 0; order < 30; ++order) {
+      orderKeys.add(orderHandler.addOrderToDatastore(new LibraryPoint(0, 0, 0), Arrays.asList("book1"), "user1", new Point(3, 3)));
+    }
+    // The transaction of the second batch keeps conflicting after the first batch is claimed.
+    OrderHandler conflictingOrderHandler = Mockito.spy(orderHandler);
+    Mockito.doThrow(new ConcurrentModificationException()).when(conflictingOrderHandler).changeStatusInTransaction(
+        orderKeys.subList(25, 30), OrderHandler.OrderStatus.ADDED, OrderHandler.OrderStatus.ASSIGNED);
+
+    try {
+      conflictingOrderHandler.claimOrders(orderKeys);
+      Assert.fail("The conflict should be rethrown");
+    } catch (ConcurrentModificationException e) {
+      // The orders of the first batch are given back.
+    }
+    for (String orderKey : orderKeys) {
+      Assert.assertEquals(OrderHandler.OrderStatus.ADDED.toString(), orderHandler.getProperty(orderKey, OrderHandler.OrderProperty.STATUS.label));
+    }
+  }
+
   @Test
   public void testGetProperty() throws ApiException, BadRequestException, DataNotFoundException, IOException, EntityNotFoundException, InterruptedException {
     DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
@@ -0,0 +1,109 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import com.google.maps.errors.ApiException;
+import java.io.IOException;
+import java.lang.InterruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that an OrderSelector selects orders whose route fits in the given time.
+ */
+@RunWith(JUnit4.class)
+public class OrderSelectorTest {
+  private ManhattanDistancePathFinder pathFinder = new ManhattanDistancePathFinder();
+  private TravelTimeMatrix travelTimes;
+  private List<Journey.Pair> orders;
+
+  @Before
+  public void setUp() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    travelTimes = new TravelTimeMatrix(pathFinder, new Point(0, 0));
+    List<Point> points = Arrays.asList(new Point(0.0002, 0.0001), new Point(0.0004, 0.0002),
+        new Point(0.0001, 0.0005), new Point(0.0003, 0.0006), new Point(0.0006, 0.0003),
+        new Point(0.0007, 0.0007), new Point(0.0090, 0.0090), new Point(0.0060, 0.0095));
+    for (Point point : points) {
+      travelTimes.addWaypoint(point);
+    }
+    travelTimes.fill();
+    orders = new ArrayList<>();
+    for (int waypoint = 0; waypoint < points.size(); waypoint += 2) {
+      orders.add(new Journey.Pair(waypoint, waypoint + 1));
+    }
+  }
+
+  /**
+   * Asserts that route visits the library of each selected order before its recipient.
+   */
+  private void assertRespectsOrders(OrderSelector selector, List<Integer> selectedOrders) {
+    List<Integer> route = new ArrayList<>();
+    for (int waypoint : selector.getRoute()) {
+      route.add(waypoint);
+    }
+    assertEquals(2 * selectedOrders.size(), route.size());
+    for (int order : selectedOrders) {
+      assertTrue(route.indexOf(orders.get(order).first) >= 0);
+      assertTrue(route.indexOf(orders.get(order).first) < route.indexOf(orders.get(order).second));
+    }
+  }
+
+  @Test
+  public void testAllOrdersAreSelectedIfTimeIsLargeEnough() {
+    OrderSelector selector = new OrderSelector(travelTimes, 100000, 200);
+    List<Integer> selectedOrders = selector.selectOrders(orders);
+    assertEquals(Arrays.asList(0, 1, 2, 3), selectedOrders);
+    assertTrue(selector.getUnselectedOrders().isEmpty());
+    assertEquals(0, selector.getNumberOfScreenedOutOrders());
+    assertRespectsOrders(selector, selectedOrders);
+  }
+
+  @Test
+  public void testFarOrderIsScreenedOut() {
+    OrderSelector selector = new OrderSelector(travelTimes, 300, 200);
+    List<Integer> selectedOrders = selector.selectOrders(orders);
+    assertEquals(Arrays.asList(0, 1, 2), selectedOrders);
+    assertEquals(1, selector.getNumberOfScreenedOutOrders());
+    assertTrue(selector.getUnselectedOrders().isEmpty());
+    assertTrue(selector.getRouteTime() <= 300);
+    assertRespectsOrders(selector, selectedOrders);
+  }
+
+  @Test
+  public void testRouteFitsInTime() {
+    OrderSelector selector = new OrderSelector(travelTimes, 120, 200);
+    List<Integer> selectedOrders = selector.selectOrders(orders);
+    assertTrue(selectedOrders.size() > 0);
+    assertTrue(selectedOrders.size() < orders.size());
+    assertTrue(selector.getRouteTime() <= 120);
+    assertEquals(orders.size() - selectedOrders.size() - selector.getNumberOfScreenedOutOrders(),
+        selector.getUnselectedOrders().size());
+    assertRespectsOrders(selector, selectedOrders);
+  }
+
+  @Test
+  public void testWaypointLimitIsRespected() {
+    OrderSelector selector = new OrderSelector(travelTimes, 100000, 4);
+    List<Integer> selectedOrders = selector.selectOrders(orders);
+    assertEquals(2, selectedOrders.size());
+    assertRespectsOrders(selector, selectedOrders);
+  }
+}
@@ -54,6 +54,14 @@ public class PointTest {
     Assert.assertNotEquals(point1.hashCode(), point3.hashCode());
   }
 
+  @Test
+  public void testDistanceInMeters() throws BadRequestException {
+    // One degree of latitude is about 111 km, and one degree of longitude is half of that at 60 N.
+    Assert.assertEquals(111195, new Point(0, 0).getDistanceInMeters(new Point(1, 0)), 1);
+    Assert.assertEquals(55597, new Point(60, 0).getDistanceInMeters(new Point(60, 1)), 1);
+    Assert.assertEquals(0, new Point(51.5, -0.12).getDistanceInMeters(new Point(51.5, -0.12)), 0);
+  }
+
   @Test(expected = BadRequestException.class) 
   public void testInvalidLatitude() throws BadRequestException{
     Point point = new Point(90.1234, 10.1234);
@@ -0,0 +1,81 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests that concurrent requests for the same key share one request.
+ */
+@RunWith(JUnit4.class)
+public class RequestCoalescerTest {
+  @Test
+  public void testPendingRequestIsShared() throws IOException, InterruptedException, ExecutionException {
+    RequestCoalescer<String, Integer> coalescer = new RequestCoalescer<>();
+    List<CompletableFuture<Integer>> sentRequests = new ArrayList<>();
+    RequestCoalescer.Request<Integer> request = () -> {
+      CompletableFuture<Integer> sentRequest = new CompletableFuture<>();
+      sentRequests.add(sentRequest);
+      return sentRequest;
+    };
+
+    CompletableFuture<Integer> first = coalescer.get("a", request);
+    CompletableFuture<Integer> second = coalescer.get("a", request);
+    CompletableFuture<Integer> other = coalescer.get("b", request);
+    Assert.assertEquals(2, sentRequests.size());
+    Assert.assertEquals(1, coalescer.getNumberOfSavedRequests());
+
+    sentRequests.get(0).complete(7);
+    Assert.assertEquals(7, (int) first.get());
+    Assert.assertEquals(7, (int) second.get());
+    Assert.assertFalse(other.isDone());
+
+    // The completed request is forgotten, thus a later caller sends a new request.
+    coalescer.get("a", request);
+    Assert.assertEquals(3, sentRequests.size());
+    Assert.assertEquals(3, coalescer.getNumberOfSentRequests());
+    Assert.assertEquals(1, coalescer.getNumberOfSavedRequests());
+  }
+
+  @Test
+  public void testFailureIsSharedAndForgotten() throws IOException, InterruptedException {
+    RequestCoalescer<String, Integer> coalescer = new RequestCoalescer<>();
+    CompletableFuture<Integer> sentRequest = new CompletableFuture<>();
+    CompletableFuture<Integer> first = coalescer.get("a", () -> sentRequest);
+    CompletableFuture<Integer> second = coalescer.get("a", () -> sentRequest);
+    sentRequest.completeExceptionally(new DataNotFoundException("No path!"));
+
+    for (CompletableFuture<Integer> future : Arrays.asList(first, second)) {
+      try {
+        future.get();
+        Assert.fail();
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof DataNotFoundException);
+      }
+    }
+    CompletableFuture<Integer> retry = coalescer.get("a", () -> CompletableFuture.completedFuture(3));
+    Assert.assertTrue(retry.isDone());
+    Assert.assertEquals(2, coalescer.getNumberOfSentRequests());
+  }
+}
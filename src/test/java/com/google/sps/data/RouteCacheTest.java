@@ -0,0 +1,106 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import com.google.maps.errors.ApiException;
+import java.io.IOException;
+import java.lang.InterruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that a RouteCache finds the routes of journeys with the same waypoints and restrictions.
+ */
+@RunWith(JUnit4.class)
+public class RouteCacheTest {
+  private ManhattanDistancePathFinder pathFinder = new ManhattanDistancePathFinder();
+  private CourierStop start;
+  private List<Point> points;
+
+  @Before
+  public void setUp() throws BadRequestException {
+    start = new CourierStop(new Point(-0.0001, 0));
+    points = Arrays.asList(new Point(0.0002, 0.0002), new Point(0.0003, 0.0007), new Point(0.0008, 0.0001),
+        new Point(0.0005, 0.0006), new Point(0.0001, 0.0009), new Point(0.0006, 0.0004));
+  }
+
+  /**
+   * Creates a journey that visits the points with the given indices in this order, where each
+   * pair of consecutive indices is a (library, recipient) pair.
+   */
+  private Journey createJourney(RouteCache routeCache, int... pointIndices) {
+    Journey journey = new Journey(start, pathFinder);
+    journey.setRouteCache(routeCache);
+    for (int pointIndex : pointIndices) {
+      journey.addPointToWaypoints(points.get(pointIndex));
+    }
+    for (int i = 0; i < pointIndices.length; i += 2) {
+      journey.addRestriction(i, i + 1);
+    }
+    return journey;
+  }
+
+  @Test
+  public void testSameJourneyInDifferentOrderIsFound() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    RouteCache routeCache = new RouteCache(10);
+    Journey journey = createJourney(routeCache, 0, 1, 2, 3, 4, 5);
+    List<CourierStop> route = journey.findOptimalOrderForWaypoints();
+    assertEquals(0, routeCache.getNumberOfHits());
+    assertEquals(1, routeCache.getNumberOfMisses());
+
+    // The same orders added in a different order give the same route without solving it.
+    Journey sameJourney = createJourney(routeCache, 4, 5, 0, 1, 2, 3);
+    assertEquals(route, sameJourney.findOptimalOrderForWaypoints());
+    assertEquals(0, sameJourney.getTravelTimes().getNumberOfLookups());
+    assertEquals(1, routeCache.getNumberOfHits());
+    assertEquals(1, routeCache.getNumberOfMisses());
+  }
+
+  @Test
+  public void testDifferentRestrictionsAreNotFound() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    RouteCache routeCache = new RouteCache(10);
+    createJourney(routeCache, 0, 1, 2, 3).findOptimalOrderForWaypoints();
+    Journey reversedJourney = createJourney(routeCache, 1, 0, 3, 2);
+    List<CourierStop> route = reversedJourney.findOptimalOrderForWaypoints();
+    assertEquals(0, routeCache.getNumberOfHits());
+    assertEquals(2, routeCache.getNumberOfMisses());
+    assertTrue(route.indexOf(new CourierStop(points.get(1))) < route.indexOf(new CourierStop(points.get(0))));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedRouteIsEvicted() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    RouteCache routeCache = new RouteCache(2);
+    createJourney(routeCache, 0, 1).findOptimalOrderForWaypoints();
+    createJourney(routeCache, 2, 3).findOptimalOrderForWaypoints();
+    // Use the first route, so that the second one is the least recently used.
+    createJourney(routeCache, 0, 1).findOptimalOrderForWaypoints();
+    createJourney(routeCache, 4, 5).findOptimalOrderForWaypoints();
+    assertEquals(2, routeCache.size());
+
+    List<Point> waypoints = Arrays.asList(points.get(2), points.get(3));
+    List<Journey.Pair> restrictions = Arrays.asList(new Journey.Pair(0, 1));
+    assertNull(routeCache.get(RouteCache.createKey(start.getPoint(), waypoints, restrictions)));
+    waypoints = Arrays.asList(points.get(0), points.get(1));
+    assertNotNull(routeCache.get(RouteCache.createKey(start.getPoint(), waypoints, restrictions)));
+  }
+}
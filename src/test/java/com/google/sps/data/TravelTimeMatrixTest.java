@@ -0,0 +1,207 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.data;
+
+import com.google.maps.errors.ApiException;
+import java.io.IOException;
+import java.lang.InterruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that a TravelTimeMatrix stores the correct times and requests each of them only once.
+ */
+@RunWith(JUnit4.class)
+public class TravelTimeMatrixTest {
+  private ManhattanDistancePathFinder pathFinder = new ManhattanDistancePathFinder();
+  private Point start;
+  private List<Point> points;
+
+  @Before
+  public void setUp() throws BadRequestException {
+    start = new Point(-0.0001, 0);
+    points = new ArrayList<>();
+    for (int i = 0; i < 12; ++ i) {
+      points.add(new Point(0.0001 * i, 0.0003 * (i % 5)));
+    }
+  }
+
+  private void assertTimesAreCorrect(TravelTimeMatrix travelTimes, List<Point> waypoints) {
+    assertEquals(waypoints.size(), travelTimes.getNumberOfWaypoints());
+    for (int from = 0; from < waypoints.size(); ++ from) {
+      assertEquals(pathFinder.distance(start, waypoints.get(from)), travelTimes.getTimeFromStart(from));
+      for (int to = 0; to < waypoints.size(); ++ to) {
+        if (from != to) {
+          assertEquals(pathFinder.distance(waypoints.get(from), waypoints.get(to)), travelTimes.getTime(from, to));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFillRequestsEachPairOnce() throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    TravelTimeMatrix travelTimes = new TravelTimeMatrix(pathFinder, start);
+    List<Point> waypoints = points.subList(0, 5);
+    for (Point point : waypoints) {
+      travelTimes.addWaypoint(point);
+    }
+    travelTimes.fill();
+    assertEquals(25, travelTimes.getNumberOfLookups());
+    assertTimesAreCorrect(travelTimes, waypoints);
+    // All times are known, thus no other request is made.
+    travelTimes.fill();
+    assertEquals(25, travelTimes.getNumberOfLookups());
+  }
+
+  @Test
+  public void testAddWaypointRequestsOnlyNewRowAndColumn() throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    TravelTimeMatrix travelTimes = new TravelTimeMatrix(pathFinder, start);
+    List<Point> waypoints = new ArrayList<>();
+    int expectedLookups = 0;
+    // Add more points than the initial capacity of the matrix so that it has to grow.
+    for (Point point : points) {
+      travelTimes.addWaypoint(point);
+      waypoints.add(point);
+      travelTimes.fill();
+      // The new waypoint is reached from the start point and from the other waypoints and it
+      // reaches the other waypoints.
+      expectedLookups += 2 * waypoints.size() - 1;
+      assertEquals(expectedLookups, travelTimes.getNumberOfLookups());
+      assertTimesAreCorrect(travelTimes, waypoints);
+    }
+    assertEquals(points.size() * points.size(), travelTimes.getNumberOfLookups());
+  }
+
+  /** PathFinder that only answers matrices, recording their sizes and number of elements. */
+  private class MatrixPathFinder implements PathFinder {
+    private List<String> requestedMatrices = new ArrayList<>();
+    private int numberOfElements = 0;
+
+    @Override
+    public int getTimeInSecondsBetweenPoints(Point a, Point b) {
+      throw new UnsupportedOperationException("Travel times must be requested as a matrix!");
+    }
+
+    @Override
+    public int[][] getTimeMatrix(List<Point> origins, List<Point> destinations) {
+      requestedMatrices.add(origins.size() + "x" + destinations.size());
+      numberOfElements += origins.size() * destinations.size();
+      int[][] times = new int[origins.size()][destinations.size()];
+      for (int origin = 0; origin < origins.size(); ++origin) {
+        for (int destination = 0; destination < destinations.size(); ++destination) {
+          times[origin][destination] = pathFinder.distance(origins.get(origin), destinations.get(destination));
+        }
+      }
+      return times;
+    }
+  }
+
+  @Test
+  public void testFillRequestsUnknownTimesAsMatrices() throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    MatrixPathFinder matrixPathFinder = new MatrixPathFinder();
+    TravelTimeMatrix travelTimes = new TravelTimeMatrix(matrixPathFinder, start);
+    List<Point> waypoints = new ArrayList<>(points.subList(0, 4));
+    for (Point point : waypoints) {
+      travelTimes.addWaypoint(point);
+    }
+    travelTimes.fill();
+    // A new waypoint needs its row, requested against all waypoints, and its column, requested
+    // from the start point and the other waypoints.
+    travelTimes.addWaypoint(points.get(4));
+    waypoints.add(points.get(4));
+    travelTimes.fill();
+    travelTimes.fill();
+    assertEquals(5 * 5, travelTimes.getNumberOfLookups());
+    assertTimesAreCorrect(travelTimes, waypoints);
+    assertEquals(Arrays.asList("5x4", "1x5", "5x1"), matrixPathFinder.requestedMatrices);
+  }
+
+  @Test
+  public void testIncrementalFillRequestsOnlyNewElements() throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    MatrixPathFinder matrixPathFinder = new MatrixPathFinder();
+    TravelTimeMatrix travelTimes = new TravelTimeMatrix(matrixPathFinder, start);
+    List<Point> waypoints = new ArrayList<>();
+    for (Point point : points) {
+      int elementsBefore = matrixPathFinder.numberOfElements;
+      travelTimes.addWaypoint(point);
+      waypoints.add(point);
+      travelTimes.fill();
+      // The new row and column have 2 * n - 1 unknown times. The time from the new waypoint to
+      // itself is requested along with its row once the row has more than one unknown time.
+      int expectedElements = waypoints.size() <= 2 ? 2 * waypoints.size() - 1 : 2 * waypoints.size();
+      assertEquals(expectedElements, matrixPathFinder.numberOfElements - elementsBefore);
+      assertTimesAreCorrect(travelTimes, waypoints);
+    }
+    // Rebuilding the same journey from scratch requests the whole matrix at once.
+    MatrixPathFinder rebuildPathFinder = new MatrixPathFinder();
+    TravelTimeMatrix rebuiltTravelTimes = new TravelTimeMatrix(rebuildPathFinder, start);
+    for (Point point : points) {
+      rebuiltTravelTimes.addWaypoint(point);
+    }
+    rebuiltTravelTimes.fill();
+    assertEquals(Arrays.asList((points.size() + 1) + "x" + points.size()), rebuildPathFinder.requestedMatrices);
+  }
+
+  @Test
+  public void testRemoveWaypointKeepsKnownTimes() throws ApiException, DataNotFoundException, IOException, InterruptedException {
+    TravelTimeMatrix travelTimes = new TravelTimeMatrix(pathFinder, start);
+    List<Point> waypoints = new ArrayList<>(points.subList(0, 6));
+    for (Point point : waypoints) {
+      travelTimes.addWaypoint(point);
+    }
+    travelTimes.fill();
+    travelTimes.removeWaypoint(2);
+    waypoints.remove(2);
+    travelTimes.removeWaypoint(4);
+    waypoints.remove(4);
+    travelTimes.fill();
+    assertEquals(36, travelTimes.getNumberOfLookups());
+    assertTimesAreCorrect(travelTimes, waypoints);
+
+    // The times for a waypoint added in place of a removed one are requested again.
+    travelTimes.addWaypoint(points.get(7));
+    waypoints.add(points.get(7));
+    travelTimes.fill();
+    assertEquals(36 + 9, travelTimes.getNumberOfLookups());
+    assertTimesAreCorrect(travelTimes, waypoints);
+  }
+
+  @Test
+  public void testRouteTimeLowerBoundIsAdmissible() throws ApiException, BadRequestException, DataNotFoundException, IOException, InterruptedException {
+    TravelTimeMatrix travelTimes = new TravelTimeMatrix(pathFinder, start);
+    // The points are on a line, so the optimal route visits them from the closest to the start.
+    List<Point> waypoints = new ArrayList<>();
+    for (int i = 0; i < 6; ++ i) {
+      waypoints.add(new Point(0.0001 * i, 0));
+    }
+    for (int i = waypoints.size() - 1; i >= 0; -- i) {
+      travelTimes.addWaypoint(waypoints.get(i));
+    }
+    travelTimes.fill();
+    long optimalTime = pathFinder.distance(start, waypoints.get(waypoints.size() - 1));
+    assertEquals(optimalTime, travelTimes.getRouteTimeLowerBound());
+
+    travelTimes.addWaypoint(points.get(11));
+    travelTimes.fill();
+    assertTrue(travelTimes.getRouteTimeLowerBound() > optimalTime);
+    assertTrue(travelTimes.getRouteTimeLowerBound() <= optimalTime + pathFinder.distance(waypoints.get(5), points.get(11)));
+  }
+}
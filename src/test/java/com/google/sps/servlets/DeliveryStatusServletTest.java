@@ -0,0 +1,153 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.sps.data.BadRequestException;
+import com.google.sps.data.DeliverySlot;
+import com.google.sps.data.DeliverySlotManager;
+import com.google.sps.data.FirebaseAuthentication;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Date;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the behaviour of requests sent to DeliveryStatusServlet.java from deliverySlots.html
+ */
+@RunWith(JUnit4.class)
+public final class DeliveryStatusServletTest {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+  @Mock
+  HttpServletRequest request;
+
+  @Mock
+  HttpServletResponse response;
+
+  @Mock
+  FirebaseAuthentication firebaseAuth;
+
+  private DeliveryStatusServlet statusServlet;
+  private StringWriter responseWriter;
+
+  @Before
+  public void setUp() throws IOException, FirebaseAuthException {
+    helper.setUp();
+    // initialize Mock objects
+    MockitoAnnotations.initMocks(this);
+    when(request.getParameter("idToken")).thenReturn("idToken0");
+    when(firebaseAuth.getUserIdFromIdToken("idToken0")).thenReturn("user0");
+    responseWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(responseWriter));
+    statusServlet = new DeliveryStatusServlet();
+    statusServlet.setFirebaseAuth(firebaseAuth);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /**
+   * Creates a pending delivery slot of userId and returns its slotId.
+   */
+  private String createDeliverySlot(String userId) throws BadRequestException {
+    DeliverySlot deliverySlot = new DeliverySlot(new Date(2020, 9, 26), 0, 3600000, userId);
+    deliverySlot.setStartPoint(0.0, 0.0);
+    new DeliverySlotManager().createDeliverySlot(deliverySlot);
+    return deliverySlot.getSlotId();
+  }
+
+  /**
+   * Returns the JSON object written to the response.
+   */
+  private JsonObject getResponseJson() {
+    return new JsonParser().parse(responseWriter.toString()).getAsJsonObject();
+  }
+
+  @Test
+  public void testInvalidIdToken() throws IOException, FirebaseAuthException {
+    when(firebaseAuth.getUserIdFromIdToken("idToken0")).thenThrow(new FirebaseAuthException("invalid-token", "Invalid idToken!"));
+    statusServlet.doGet(request, response);
+    verify(response).sendError(HttpServletResponse.SC_UNAUTHORIZED, "Invalid idToken!");
+  }
+
+  @Test
+  public void testMissingSlotId() throws IOException {
+    statusServlet.doGet(request, response);
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "The slotId was not sent!");
+  }
+
+  /**
+   * Tests that slotIds that don't exist, aren't valid keys or belong to other users are not found.
+   */
+  @Test
+  public void testUnknownSlotId() throws BadRequestException, IOException {
+    String slotId = createDeliverySlot("user1");
+    for (String unknownSlotId : new String[] {slotId, "slot0"}) {
+      when(request.getParameter("slotId")).thenReturn(unknownSlotId);
+      statusServlet.doGet(request, response);
+    }
+    verify(response, times(2)).sendError(HttpServletResponse.SC_NOT_FOUND, "The delivery slot doesn't exist!");
+  }
+
+  @Test
+  public void testPendingSlotHasNoJourney() throws BadRequestException, IOException {
+    String slotId = createDeliverySlot("user0");
+    when(request.getParameter("slotId")).thenReturn(slotId);
+    statusServlet.doGet(request, response);
+
+    JsonObject deliveryStatus = getResponseJson();
+    assertEquals(slotId, deliveryStatus.get("slotId").getAsString());
+    assertEquals("PENDING", deliveryStatus.get("status").getAsString());
+    assertFalse(deliveryStatus.has("journey"));
+  }
+
+  @Test
+  public void testDispatchedSlotHasJourney() throws BadRequestException, EntityNotFoundException, IOException {
+    String slotId = createDeliverySlot("user0");
+    Entity journeyEntity = new Entity("Journey");
+    journeyEntity.setProperty("slotId", slotId);
+    assertTrue(new DeliverySlotManager().markDeliverySlotAsDispatched(slotId, journeyEntity));
+    when(request.getParameter("slotId")).thenReturn(slotId);
+    statusServlet.doGet(request, response);
+
+    JsonObject deliveryStatus = getResponseJson();
+    assertEquals("DISPATCHED", deliveryStatus.get("status").getAsString());
+    assertTrue(deliveryStatus.has("journey"));
+  }
+}
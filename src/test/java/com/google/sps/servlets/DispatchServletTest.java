@@ -0,0 +1,89 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that DispatchServlet.java only dispatches the delivery requests when it is called by the
+ * cron job.
+ */
+@RunWith(JUnit4.class)
+public final class DispatchServletTest {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+  @Mock
+  HttpServletRequest request;
+
+  @Mock
+  HttpServletResponse response;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    // initialize Mock objects
+    MockitoAnnotations.initMocks(this);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void testRequestWithoutCronHeaderIsRejected() throws IOException {
+    new DispatchServlet().doGet(request, response);
+    verify(response).sendError(HttpServletResponse.SC_FORBIDDEN, "Deliveries are dispatched only by the cron job!");
+    verify(response, never()).getWriter();
+  }
+
+  @Test
+  public void testRequestWithInvalidCronHeaderIsRejected() throws IOException {
+    when(request.getHeader("X-Appengine-Cron")).thenReturn("false");
+    new DispatchServlet().doGet(request, response);
+    verify(response).sendError(HttpServletResponse.SC_FORBIDDEN, "Deliveries are dispatched only by the cron job!");
+  }
+
+  @Test
+  public void testCronRequestDispatchesDeliveries() throws IOException {
+    when(request.getHeader("X-Appengine-Cron")).thenReturn("true");
+    StringWriter responseWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(responseWriter));
+    new DispatchServlet().doGet(request, response);
+
+    // There are no pending delivery requests, thus no journeys are created.
+    verify(response, never()).sendError(anyInt(), anyString());
+    assertEquals("Created 0 journeys.", responseWriter.toString().trim());
+  }
+}